@@ -0,0 +1,38 @@
+package com.torring.benchmark;
+
+import com.torring.util.TorrentConstants;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+class BenchmarkTorrents {
+
+  static Map<String, Object> info(byte[] pieces, int pieceLength) {
+    Map<String, Object> info = new LinkedHashMap<>();
+    info.put("length", (long) pieces.length / 20 * pieceLength);
+    info.put("name", "benchmark.bin");
+    info.put("piece length", (long) pieceLength);
+    info.put("pieces", new String(pieces, StandardCharsets.ISO_8859_1));
+    return info;
+  }
+
+  static byte[] randomHashes(int numPieces) {
+    byte[] pieces = new byte[numPieces * 20];
+    new Random(numPieces).nextBytes(pieces);
+    return pieces;
+  }
+
+  static Path write(Map<String, Object> info) throws IOException {
+    Map<String, Object> metadata = new LinkedHashMap<>();
+    metadata.put("announce", "http://127.0.0.1:6969/announce");
+    metadata.put("info", info);
+    Path torrentFile = Files.createTempFile("benchmark", ".torrent");
+    torrentFile.toFile().deleteOnExit();
+    Files.write(torrentFile, TorrentConstants.bencode.encode(metadata));
+    return torrentFile;
+  }
+}
@@ -0,0 +1,53 @@
+package com.torring.benchmark;
+
+import com.torring.util.TorrentUtils;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexBenchmark {
+
+  @Param({ "10000", "100000" })
+  private int numPieces;
+
+  private byte[] pieces;
+  private Map<String, Object> info;
+
+  @Setup
+  public void setUp() {
+    pieces = BenchmarkTorrents.randomHashes(numPieces);
+    info = BenchmarkTorrents.info(pieces, 256 * 1024);
+  }
+
+  @Benchmark
+  public String bytesToHex() {
+    return TorrentUtils.bytesToHex(pieces);
+  }
+
+  @Benchmark
+  public List<String> hashedPiecesList() {
+    return TorrentUtils.getHashedPiecesList(info);
+  }
+
+  @Benchmark
+  public String pieceHashHex() {
+    return TorrentUtils.bytesToHex(pieces, (numPieces / 2) * 20, 20);
+  }
+}
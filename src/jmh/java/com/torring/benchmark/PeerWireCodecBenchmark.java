@@ -0,0 +1,94 @@
+package com.torring.benchmark;
+
+import com.torring.service.PeerWireCodec;
+import com.torring.util.TorrentConstants;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PeerWireCodecBenchmark {
+
+  private static final int MESSAGES = 64;
+
+  private byte[] pieceMessages;
+  private byte[] block;
+
+  @Setup
+  public void setUp() {
+    int messageLength =
+      TorrentConstants.MESSAGE_LENGTH_SIZE + 9 + TorrentConstants.BLOCK_SIZE;
+    ByteBuffer buffer = ByteBuffer.allocate(MESSAGES * messageLength);
+    for (int i = 0; i < MESSAGES; i++) {
+      buffer
+        .putInt(9 + TorrentConstants.BLOCK_SIZE)
+        .put(TorrentConstants.PIECE_ID)
+        .putInt(i / 16)
+        .putInt((i % 16) * TorrentConstants.BLOCK_SIZE)
+        .put(new byte[TorrentConstants.BLOCK_SIZE]);
+    }
+    pieceMessages = buffer.array();
+    block = new byte[TorrentConstants.BLOCK_SIZE];
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(MESSAGES)
+  public int decodePieceMessages() throws IOException {
+    int checksum = 0;
+    try (
+      PeerWireCodec codec = new PeerWireCodec(
+        new ByteArrayInputStream(pieceMessages),
+        OutputStream.nullOutputStream()
+      )
+    ) {
+      for (int i = 0; i < MESSAGES; i++) {
+        codec.readMessage();
+        checksum += codec.getPayloadInt(0) + codec.getPayloadInt(4);
+        // The same single copy PeerSession makes into the piece slot
+        codec
+          .getPayload()
+          .get(codec.getPayloadOffset() + 8, block, 0, block.length);
+      }
+    }
+    return checksum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(MESSAGES)
+  public void encodeRequestBatch() throws IOException {
+    try (
+      PeerWireCodec codec = new PeerWireCodec(
+        new ByteArrayInputStream(new byte[0]),
+        OutputStream.nullOutputStream()
+      )
+    ) {
+      for (int i = 0; i < MESSAGES; i++) {
+        codec.writeBlockMessage(
+          TorrentConstants.REQUEST_ID,
+          i / 16,
+          (i % 16) * TorrentConstants.BLOCK_SIZE,
+          TorrentConstants.BLOCK_SIZE
+        );
+      }
+      codec.flush();
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package com.torring.benchmark;
+
+import com.torring.model.Torrent;
+import com.torring.service.TorrentService;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PieceHashBenchmark {
+
+  @Param({ "262144", "1048576", "4194304" })
+  private int pieceLength;
+
+  private Torrent torrent;
+  private byte[] piece;
+
+  @Setup
+  public void setUp() throws Exception {
+    piece = new byte[pieceLength];
+    new Random(pieceLength).nextBytes(piece);
+    byte[] hash = MessageDigest.getInstance("SHA-1").digest(piece);
+    torrent =
+      new Torrent(
+        BenchmarkTorrents
+          .write(BenchmarkTorrents.info(hash, pieceLength))
+          .toString()
+      );
+  }
+
+  @Benchmark
+  public void verifyPiece() throws Exception {
+    TorrentService.verifyPiece(torrent, 0, piece);
+  }
+}
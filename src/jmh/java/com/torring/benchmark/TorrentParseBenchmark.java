@@ -0,0 +1,46 @@
+package com.torring.benchmark;
+
+import com.torring.model.Torrent;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class TorrentParseBenchmark {
+
+  @Param({ "10000", "100000", "1000000" })
+  private int numPieces;
+
+  private String torrentFile;
+
+  @Setup
+  public void setUp() throws Exception {
+    Path path = BenchmarkTorrents.write(
+      BenchmarkTorrents.info(
+        BenchmarkTorrents.randomHashes(numPieces),
+        256 * 1024
+      )
+    );
+    torrentFile = path.toString();
+  }
+
+  @Benchmark
+  public Torrent parseTorrent() throws Exception {
+    return new Torrent(torrentFile);
+  }
+}
@@ -0,0 +1,112 @@
+package com.torring.config;
+
+import com.torring.util.TorrentConstants;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import java.time.Duration;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+@Getter
+@Setter
+@Validated
+@Configuration
+@ConfigurationProperties(prefix = "torrent")
+public class TorrentProperties {
+
+  // Ceiling for each peer's request window, which adapts to the link below it
+  @Min(1)
+  @Max(TorrentConstants.MAX_OUTSTANDING_REQUESTS_LIMIT)
+  private int maxOutstandingRequests =
+    TorrentConstants.DEFAULT_MAX_OUTSTANDING_REQUESTS;
+
+  @Min(1)
+  private int maxPeerConnections =
+    TorrentConstants.DEFAULT_MAX_PEER_CONNECTIONS;
+
+  @Min(1)
+  private int maxTotalConnections =
+    TorrentConstants.DEFAULT_MAX_TOTAL_CONNECTIONS;
+
+  @Min(1)
+  private int maxHalfOpenConnections =
+    TorrentConstants.DEFAULT_MAX_HALF_OPEN_CONNECTIONS;
+
+  // Shared by every running torrent, split by priority
+  private DataSize maxInFlightMemory = DataSize.ofMegabytes(
+    TorrentConstants.DEFAULT_MAX_IN_FLIGHT_MEGABYTES
+  );
+
+  // Bytes per second across all torrents, zero means unlimited
+  private DataSize maxDownloadRate = DataSize.ofBytes(0);
+
+  private DataSize recheckReadAhead = DataSize.ofMegabytes(
+    TorrentConstants.DEFAULT_RECHECK_READ_AHEAD_MEGABYTES
+  );
+
+  @Min(0)
+  private int recheckParallelism = 0;
+
+  // Threads per torrent hashing pieces that arrived out of order
+  @Min(0)
+  private int verifyParallelism = 0;
+
+  // Zero binds any free port, the one we get is what the tracker hears
+  @Min(0)
+  @Max(65535)
+  private int listenPort = TorrentConstants.PORT;
+
+  // Also caps accepted connections still waiting on their handshake
+  @Min(1)
+  private int listenBacklog = TorrentConstants.DEFAULT_LISTEN_BACKLOG;
+
+  // Per torrent, on top of the outbound peers we dial ourselves
+  @Min(0)
+  private int maxInboundConnections =
+    TorrentConstants.DEFAULT_MAX_INBOUND_CONNECTIONS;
+
+  // Interested peers we upload to at once, one of them picked at random
+  @Min(1)
+  private int uploadSlots = TorrentConstants.DEFAULT_UPLOAD_SLOTS;
+
+  // Keep serving peers after the download finishes until the job is cancelled
+  private boolean seedAfterDownload = true;
+
+  private Duration resumeCheckpointInterval = Duration.ofSeconds(
+    TorrentConstants.DEFAULT_RESUME_CHECKPOINT_SECONDS
+  );
+
+  // Parsed torrents kept around, weighed mostly by their piece hashes
+  private DataSize metadataCacheSize = DataSize.ofMegabytes(
+    TorrentConstants.DEFAULT_METADATA_CACHE_MEGABYTES
+  );
+
+  // First wait for a UDP tracker's reply, doubled on each retry
+  private Duration udpTrackerTimeout = Duration.ofSeconds(
+    TorrentConstants.DEFAULT_UDP_TRACKER_TIMEOUT_SECONDS
+  );
+
+  @Min(0)
+  private int udpTrackerMaxRetries =
+    TorrentConstants.DEFAULT_UDP_TRACKER_MAX_RETRIES;
+
+  // Caps all retries to one tracker before moving on to the next in the tier
+  private Duration udpTrackerMaxWait = Duration.ofSeconds(
+    TorrentConstants.DEFAULT_UDP_TRACKER_MAX_WAIT_SECONDS
+  );
+
+  // Jobs without a timeout of their own run until done when this is unset
+  private Duration downloadTimeout;
+
+  // Finished jobs stay listed this long, or until too many pile up
+  private Duration finishedJobRetention = Duration.ofMinutes(
+    TorrentConstants.DEFAULT_FINISHED_JOB_RETENTION_MINUTES
+  );
+
+  @Min(0)
+  private int maxFinishedJobs = TorrentConstants.DEFAULT_MAX_FINISHED_JOBS;
+}
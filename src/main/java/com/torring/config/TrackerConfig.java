@@ -0,0 +1,19 @@
+package com.torring.config;
+
+import com.torring.service.UdpTrackerClient;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class TrackerConfig {
+
+  // One client for the whole server, so connection ids outlive an announce
+  @Bean
+  public UdpTrackerClient udpTrackerClient(TorrentProperties properties) {
+    return new UdpTrackerClient(
+      (int) properties.getUdpTrackerTimeout().toMillis(),
+      properties.getUdpTrackerMaxRetries(),
+      (int) properties.getUdpTrackerMaxWait().toMillis()
+    );
+  }
+}
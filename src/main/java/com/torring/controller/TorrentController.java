@@ -1,13 +1,21 @@
 package com.torring.controller;
 
+import com.torring.model.DownloadJobStatus;
+import com.torring.model.RecheckResult;
 import com.torring.model.Torrent;
+import com.torring.model.TorrentPriority;
 import com.torring.service.TorrentService;
 import com.torring.util.ResponseHandler;
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -30,8 +38,7 @@ public class TorrentController {
     @RequestParam("torrentFile") MultipartFile torrentFile
   ) {
     try {
-      String torrentFilePath = torrentService.saveTorrentFile(torrentFile);
-      Torrent torrent = new Torrent(torrentFilePath);
+      Torrent torrent = torrentService.loadTorrent(torrentFile);
       logger.info("Torrent file metadata retrieved successfully!");
       return new ResponseHandler(HttpStatus.OK, torrent);
     } catch (Exception e) {
@@ -45,20 +52,108 @@ public class TorrentController {
 
   @PostMapping("/download")
   public ResponseEntity<Object> downloadTorrent(
-    @RequestParam("torrentFile") MultipartFile torrentFile
+    @RequestParam("torrentFile") MultipartFile torrentFile,
+    @RequestParam(
+      value = "timeoutSeconds",
+      required = false
+    ) Long timeoutSeconds,
+    @RequestParam(
+      value = "priority",
+      required = false
+    ) TorrentPriority priority
+  ) {
+    try {
+      DownloadJobStatus job = torrentService.startDownload(
+        torrentFile,
+        timeoutSeconds != null ? Duration.ofSeconds(timeoutSeconds) : null,
+        priority
+      );
+      logger.info("Torrent download job created successfully!");
+      return new ResponseHandler(HttpStatus.ACCEPTED, job);
+    } catch (IllegalStateException e) {
+      return new ResponseHandler(HttpStatus.CONFLICT, e.getMessage());
+    } catch (Exception e) {
+      logger.error("Failed to create torrent download job: " + e);
+      return new ResponseHandler(
+        HttpStatus.INTERNAL_SERVER_ERROR,
+        "Failed to create torrent download job: " + e
+      );
+    }
+  }
+
+  @GetMapping("/jobs")
+  public ResponseEntity<Object> getJobs() {
+    return new ResponseHandler(HttpStatus.OK, torrentService.getJobs());
+  }
+
+  @GetMapping("/jobs/scrape")
+  public ResponseEntity<Object> scrapeJobs() {
+    return new ResponseHandler(HttpStatus.OK, torrentService.scrapeJobs());
+  }
+
+  @GetMapping("/jobs/{jobId}")
+  public ResponseEntity<Object> getJob(@PathVariable String jobId) {
+    return handleJobAction(() -> torrentService.getJob(jobId));
+  }
+
+  @PostMapping("/jobs/{jobId}/pause")
+  public ResponseEntity<Object> pauseJob(@PathVariable String jobId) {
+    return handleJobAction(() -> torrentService.pauseJob(jobId));
+  }
+
+  @PostMapping("/jobs/{jobId}/resume")
+  public ResponseEntity<Object> resumeJob(@PathVariable String jobId) {
+    return handleJobAction(() -> torrentService.resumeJob(jobId));
+  }
+
+  @PostMapping("/jobs/{jobId}/priority")
+  public ResponseEntity<Object> setJobPriority(
+    @PathVariable String jobId,
+    @RequestParam("priority") TorrentPriority priority
+  ) {
+    return handleJobAction(() ->
+      torrentService.setJobPriority(jobId, priority)
+    );
+  }
+
+  @PostMapping("/jobs/{jobId}/cancel")
+  public ResponseEntity<Object> cancelJob(@PathVariable String jobId) {
+    return handleJobAction(() -> torrentService.cancelJob(jobId));
+  }
+
+  private ResponseEntity<Object> handleJobAction(
+    Callable<DownloadJobStatus> action
   ) {
     try {
-      torrentService.downloadFile(torrentFile);
-      logger.info("Torrent file content downloaded successfully!");
+      return new ResponseHandler(HttpStatus.OK, action.call());
+    } catch (NoSuchElementException e) {
+      return new ResponseHandler(HttpStatus.NOT_FOUND, e.getMessage());
+    } catch (IllegalStateException e) {
+      return new ResponseHandler(HttpStatus.CONFLICT, e.getMessage());
+    } catch (Exception e) {
+      logger.error("Failed to update torrent download job: " + e);
       return new ResponseHandler(
-        HttpStatus.OK,
-        "Torrent file content downloaded successfully!"
+        HttpStatus.INTERNAL_SERVER_ERROR,
+        "Failed to update torrent download job: " + e
       );
+    }
+  }
+
+  @PostMapping("/recheck")
+  public ResponseEntity<Object> recheckTorrent(
+    @RequestParam("torrentFile") MultipartFile torrentFile
+  ) {
+    try {
+      RecheckResult result = torrentService.recheckFile(torrentFile);
+      logger.info("Torrent file content rechecked successfully!");
+      return new ResponseHandler(HttpStatus.OK, result);
+    } catch (IllegalStateException e) {
+      return new ResponseHandler(HttpStatus.CONFLICT, e.getMessage());
     } catch (Exception e) {
-      logger.error("Failed to download torrent file content: " + e);
+      logger.error("Failed to recheck torrent file content: " + e);
       return new ResponseHandler(
         HttpStatus.INTERNAL_SERVER_ERROR,
-        "Failed to download torrent file content: " + e
+        "Failed to recheck torrent file content: " + e
       );
     }
   }
@@ -0,0 +1,16 @@
+package com.torring.model;
+
+public enum DownloadJobState {
+  QUEUED,
+  CHECKING,
+  RUNNING,
+  SEEDING,
+  PAUSED,
+  COMPLETED,
+  FAILED,
+  CANCELLED;
+
+  public boolean isFinished() {
+    return this == COMPLETED || this == FAILED || this == CANCELLED;
+  }
+}
@@ -0,0 +1,54 @@
+package com.torring.model;
+
+import java.time.Instant;
+import lombok.Getter;
+
+@Getter
+public class DownloadJobStatus {
+
+  private final String id;
+  private final String name;
+  private final String infoHashHex;
+  private final DownloadJobState state;
+  private final TorrentPriority priority;
+  private final int completedPieces;
+  private final int numPieces;
+  private final double progress;
+  private final int activeConnections;
+  private final long uploadedBytes;
+  private final Instant createdAt;
+  private final Instant deadline;
+  private final Instant finishedAt;
+  private final String error;
+
+  public DownloadJobStatus(
+    String id,
+    String name,
+    String infoHashHex,
+    DownloadJobState state,
+    TorrentPriority priority,
+    int completedPieces,
+    int numPieces,
+    int activeConnections,
+    long uploadedBytes,
+    Instant createdAt,
+    Instant deadline,
+    Instant finishedAt,
+    String error
+  ) {
+    this.id = id;
+    this.name = name;
+    this.infoHashHex = infoHashHex;
+    this.state = state;
+    this.priority = priority;
+    this.completedPieces = completedPieces;
+    this.numPieces = numPieces;
+    this.progress = numPieces == 0 ? 100 : completedPieces * 100.0 / numPieces;
+    this.activeConnections = activeConnections;
+    this.uploadedBytes = uploadedBytes;
+    this.createdAt = createdAt;
+    this.deadline = deadline;
+    this.finishedAt = finishedAt;
+    this.error = error;
+  }
+}
@@ -0,0 +1,17 @@
+package com.torring.model;
+
+import lombok.Getter;
+
+@Getter
+public class FileSegment {
+
+  private final int fileIndex;
+  private final long fileOffset;
+  private final int length;
+
+  public FileSegment(int fileIndex, long fileOffset, int length) {
+    this.fileIndex = fileIndex;
+    this.fileOffset = fileOffset;
+    this.length = length;
+  }
+}
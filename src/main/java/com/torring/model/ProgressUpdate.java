@@ -0,0 +1,38 @@
+package com.torring.model;
+
+import lombok.Getter;
+
+@Getter
+public class ProgressUpdate {
+
+  private final String type = "progress";
+  private final String infoHash;
+  private final String name;
+  private final int completedPieces;
+  private final int numPieces;
+  private final long bytesPerSecond;
+  private final Long etaSeconds;
+  // Pieces completed since the last update, as a bitfield from deltaOffset
+  private final int deltaOffset;
+  private final String delta;
+
+  public ProgressUpdate(
+    String infoHash,
+    String name,
+    int completedPieces,
+    int numPieces,
+    long bytesPerSecond,
+    Long etaSeconds,
+    int deltaOffset,
+    String delta
+  ) {
+    this.infoHash = infoHash;
+    this.name = name;
+    this.completedPieces = completedPieces;
+    this.numPieces = numPieces;
+    this.bytesPerSecond = bytesPerSecond;
+    this.etaSeconds = etaSeconds;
+    this.deltaOffset = deltaOffset;
+    this.delta = delta;
+  }
+}
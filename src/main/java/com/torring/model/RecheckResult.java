@@ -0,0 +1,33 @@
+package com.torring.model;
+
+import lombok.Getter;
+
+@Getter
+public class RecheckResult {
+
+  private final String name;
+  private final String infoHashHex;
+  private final int numPieces;
+  private final int verifiedPieces;
+  private final long elapsedMillis;
+  private final double piecesPerSecond;
+  private final String bitfield;
+
+  public RecheckResult(
+    String name,
+    String infoHashHex,
+    int numPieces,
+    int verifiedPieces,
+    long elapsedMillis,
+    double piecesPerSecond,
+    String bitfield
+  ) {
+    this.name = name;
+    this.infoHashHex = infoHashHex;
+    this.numPieces = numPieces;
+    this.verifiedPieces = verifiedPieces;
+    this.elapsedMillis = elapsedMillis;
+    this.piecesPerSecond = piecesPerSecond;
+    this.bitfield = bitfield;
+  }
+}
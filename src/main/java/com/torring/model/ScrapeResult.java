@@ -0,0 +1,24 @@
+package com.torring.model;
+
+import lombok.Getter;
+
+@Getter
+public class ScrapeResult {
+
+  private final String infoHashHex;
+  private final int seeders;
+  private final int completed;
+  private final int leechers;
+
+  public ScrapeResult(
+    String infoHashHex,
+    int seeders,
+    int completed,
+    int leechers
+  ) {
+    this.infoHashHex = infoHashHex;
+    this.seeders = seeders;
+    this.completed = completed;
+    this.leechers = leechers;
+  }
+}
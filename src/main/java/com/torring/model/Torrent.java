@@ -1,16 +1,18 @@
 package com.torring.model;
 
-import com.dampcake.bencode.Type;
-import com.torring.util.TorrentConstants;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.torring.util.BencodeReader;
 import com.torring.util.TorrentUtils;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
 import lombok.Getter;
 
 @Getter
@@ -25,57 +27,182 @@ public class Torrent {
   private final byte[] infoHash;
   private final String infoHashHex;
   private final int pieceLength;
+  // Piece hashes stay in one flat array, hex is only built when asked for
+  @JsonIgnore
   private final byte[] pieces;
-  private final List<String> hashedPiecesList;
   private final String name;
   private final long totalLength;
   private final List<FileMetadata> files;
 
   public Torrent(String torrentFilePath) throws Exception {
-    MessageDigest digest = MessageDigest.getInstance("SHA-1");
-    byte[] torrentFile = Files.readAllBytes(Paths.get(torrentFilePath));
-    Map<String, Object> metadata = TorrentConstants.bencode.decode(
-      torrentFile,
-      Type.DICTIONARY
-    );
-    Map<String, Object> info = (Map<String, Object>) metadata.get("info");
-    this.announceUrl = (String) metadata.get("announce");
-    this.announceUrlList =
-      metadata.containsKey("announce-list")
-        ? (List<List<String>>) metadata.get("announce-list")
-        : null;
-    this.comment =
-      metadata.containsKey("comment") ? (String) metadata.get("comment") : null;
-    this.createdBy =
-      metadata.containsKey("created by")
-        ? (String) metadata.get("created by")
-        : null;
-    this.createdOn =
-      metadata.containsKey("creation date")
-        ? Date.from(Instant.ofEpochSecond((Long) metadata.get("creation date")))
-        : null;
-    this.infoHash = digest.digest(TorrentConstants.bencode.encode(info));
+    this(Files.readAllBytes(Paths.get(torrentFilePath)));
+  }
+
+  public Torrent(byte[] torrentFile) throws Exception {
+    BencodeReader reader = new BencodeReader(torrentFile);
+    String announceUrl = null;
+    List<List<String>> announceUrlList = null;
+    String comment = null;
+    String createdBy = null;
+    Date createdOn = null;
+    Info info = null;
+    reader.beginDictionary();
+    while (reader.hasNext()) {
+      switch (reader.readKey()) {
+        case "announce" -> announceUrl = reader.readString();
+        case "announce-list" -> announceUrlList =
+          (List<List<String>>) reader.readValue();
+        case "comment" -> comment = reader.readString();
+        case "created by" -> createdBy = reader.readString();
+        case "creation date" -> createdOn =
+          Date.from(Instant.ofEpochSecond(reader.readLong()));
+        case "info" -> info = new Info(reader);
+        default -> reader.skip();
+      }
+    }
+    reader.end();
+    if (info == null || info.pieces == null) {
+      throw new IllegalArgumentException("Torrent has no info dictionary");
+    }
+    long totalLength = info.totalLength();
+    checkPieceLayout(info.pieceLength, info.pieces.remaining(), totalLength);
+    this.announceUrl = announceUrl;
+    this.announceUrlList = announceUrlList;
+    this.comment = comment;
+    this.createdBy = createdBy;
+    this.createdOn = createdOn;
+    this.infoHash = info.hash;
     this.infoHashHex = TorrentUtils.bytesToHex(infoHash);
-    this.pieceLength = ((Number) info.get("piece length")).intValue();
-    this.pieces = TorrentUtils.getPieces(info);
-    this.hashedPiecesList = TorrentUtils.getHashedPiecesList(info);
-    this.name = (String) info.get("name");
-    if (info.containsKey("files")) {
-      this.files = new ArrayList<>();
-      long totalLength = 0;
-      List<Map<String, Object>> fileList = (List<Map<String, Object>>) info.get(
-        "files"
+    this.pieceLength = (int) info.pieceLength;
+    // The one copy, so the torrent doesn't pin the whole file
+    this.pieces = new byte[info.pieces.remaining()];
+    info.pieces.get(pieces);
+    this.name = info.name;
+    this.files = info.files;
+    this.totalLength = totalLength;
+  }
+
+  private static void checkPieceLayout(
+    long pieceLength,
+    int piecesLength,
+    long totalLength
+  ) {
+    // Everything downstream sizes arrays and divides by these
+    if (pieceLength <= 0 || pieceLength > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid piece length " + pieceLength);
+    }
+    if (totalLength <= 0) {
+      throw new IllegalArgumentException("Invalid total length " + totalLength);
+    }
+    if (piecesLength % 20 != 0) {
+      throw new IllegalArgumentException(
+        "Piece hashes are " + piecesLength + " bytes, not a multiple of 20"
+      );
+    }
+    long expected = (totalLength + pieceLength - 1) / pieceLength;
+    if (piecesLength / 20 != expected) {
+      throw new IllegalArgumentException(
+        "Torrent has " +
+        piecesLength / 20 +
+        " piece hashes for " +
+        expected +
+        " pieces"
       );
-      for (Map<String, Object> fileInfo : fileList) {
-        long length = ((Number) fileInfo.get("length")).longValue();
-        List<String> path = (List<String>) fileInfo.get("path");
+    }
+  }
+
+  private static class Info {
+
+    private byte[] hash;
+    private long pieceLength;
+    private ByteBuffer pieces;
+    private String name;
+    private long length;
+    private List<FileMetadata> files;
+
+    private Info(BencodeReader reader) throws NoSuchAlgorithmException {
+      int start = reader.getPosition();
+      reader.beginDictionary();
+      while (reader.hasNext()) {
+        switch (reader.readKey()) {
+          case "piece length" -> pieceLength = reader.readLong();
+          case "pieces" -> pieces = reader.readBytes();
+          case "name" -> name = reader.readString();
+          case "length" -> length = reader.readLong();
+          case "files" -> files = readFiles(reader);
+          default -> reader.skip();
+        }
+      }
+      reader.end();
+      // Hash the bytes as they came, re-encoding may not reproduce them
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      digest.update(reader.getData(), start, reader.getPosition() - start);
+      hash = digest.digest();
+    }
+
+    private long totalLength() {
+      if (files == null) {
+        return length;
+      }
+      long total = 0;
+      for (FileMetadata file : files) {
+        if (file.getLength() < 0) {
+          throw new IllegalArgumentException(
+            "Invalid file length " + file.getLength()
+          );
+        }
+        total += file.getLength();
+        // Past this it has wrapped
+        if (total < 0) {
+          throw new IllegalArgumentException("Torrent is too large");
+        }
+      }
+      return total;
+    }
+
+    private static List<FileMetadata> readFiles(BencodeReader reader) {
+      List<FileMetadata> files = new ArrayList<>();
+      reader.beginList();
+      while (reader.hasNext()) {
+        List<String> path = null;
+        long length = 0;
+        reader.beginDictionary();
+        while (reader.hasNext()) {
+          switch (reader.readKey()) {
+            case "length" -> length = reader.readLong();
+            case "path" -> path = (List<String>) reader.readValue();
+            default -> reader.skip();
+          }
+        }
+        reader.end();
         files.add(new FileMetadata(path, length));
-        totalLength += length;
       }
-      this.totalLength = totalLength;
-    } else {
-      this.totalLength = ((Number) info.get("length")).longValue();
-      this.files = null;
+      reader.end();
+      return files;
     }
   }
+
+  public int getNumPieces() {
+    return pieces.length / 20;
+  }
+
+  public String getPieceHashHex(int pieceIndex) {
+    return TorrentUtils.bytesToHex(pieces, pieceIndex * 20, 20);
+  }
+
+  @JsonIgnore
+  public List<String> getHashedPiecesList() {
+    // A view, so callers that walk it don't pin a String per piece
+    return new AbstractList<>() {
+      @Override
+      public String get(int index) {
+        return getPieceHashHex(index);
+      }
+
+      @Override
+      public int size() {
+        return getNumPieces();
+      }
+    };
+  }
 }
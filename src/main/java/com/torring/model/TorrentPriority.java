@@ -0,0 +1,17 @@
+package com.torring.model;
+
+public enum TorrentPriority {
+  LOW(1),
+  NORMAL(2),
+  HIGH(4);
+
+  private final int weight;
+
+  TorrentPriority(int weight) {
+    this.weight = weight;
+  }
+
+  public int getWeight() {
+    return weight;
+  }
+}
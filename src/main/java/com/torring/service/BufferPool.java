@@ -0,0 +1,52 @@
+package com.torring.service;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BufferPool {
+
+  private final int bufferSize;
+  private final int maxPooled;
+  private final boolean direct;
+  private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pooled = new AtomicInteger(0);
+
+  public BufferPool(int bufferSize, int maxPooled) {
+    this(bufferSize, maxPooled, false);
+  }
+
+  public BufferPool(int bufferSize, int maxPooled, boolean direct) {
+    this.bufferSize = bufferSize;
+    this.maxPooled = maxPooled;
+    this.direct = direct;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  public ByteBuffer acquire() {
+    ByteBuffer buffer = buffers.poll();
+    if (buffer == null) {
+      return direct
+        ? ByteBuffer.allocateDirect(bufferSize)
+        : ByteBuffer.allocate(bufferSize);
+    }
+    pooled.decrementAndGet();
+    return buffer.clear();
+  }
+
+  public void release(ByteBuffer buffer) {
+    // Oversized one-off buffers are left to the GC
+    if (buffer == null || buffer.capacity() != bufferSize) {
+      return;
+    }
+    if (pooled.incrementAndGet() > maxPooled) {
+      pooled.decrementAndGet();
+      return;
+    }
+    buffers.offer(buffer);
+  }
+}
@@ -0,0 +1,184 @@
+package com.torring.service;
+
+import com.torring.model.DownloadJobState;
+import com.torring.model.DownloadJobStatus;
+import com.torring.model.Torrent;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class DownloadJob {
+
+  private final String id;
+  private final TorrentDownload download;
+  private final Instant createdAt = Instant.now();
+  private final Instant deadline;
+  private DownloadJobState state = DownloadJobState.QUEUED;
+  private Instant finishedAt;
+  private String error;
+  // Set while pause() stops the download outside the lock
+  private boolean stopping;
+  // The run that checks, announces and starts the download
+  private Future<?> run;
+  // The tracker heard "started" and no "stopped" since
+  private final AtomicBoolean announced = new AtomicBoolean(false);
+
+  public DownloadJob(String id, TorrentDownload download, Instant deadline) {
+    this.id = id;
+    this.download = download;
+    this.deadline = deadline;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public TorrentDownload getDownload() {
+    return download;
+  }
+
+  public Torrent getTorrent() {
+    return download.getTorrent();
+  }
+
+  public synchronized DownloadJobState getState() {
+    return state;
+  }
+
+  public synchronized Instant getFinishedAt() {
+    return finishedAt;
+  }
+
+  public synchronized boolean transition(
+    DownloadJobState from,
+    DownloadJobState to
+  ) {
+    if (state != from) {
+      return false;
+    }
+    state = to;
+    return true;
+  }
+
+  // False once the job was paused or cancelled while checking or announcing
+  public synchronized boolean isStarting() {
+    return (
+      state == DownloadJobState.QUEUED || state == DownloadJobState.CHECKING
+    );
+  }
+
+  public synchronized boolean start(List<String> peers) {
+    if (!isStarting()) {
+      return false;
+    }
+    state = DownloadJobState.RUNNING;
+    download.start(peers);
+    return true;
+  }
+
+  public synchronized void submit(ExecutorService executor, Runnable runner) {
+    run = executor.submit(runner);
+  }
+
+  public void announced() {
+    announced.set(true);
+  }
+
+  // True once per "started", so each gets exactly one "stopped"
+  public boolean takeAnnounced() {
+    return announced.getAndSet(false);
+  }
+
+  public synchronized boolean seed() {
+    // The download stays up so its sessions can keep answering requests
+    return transition(DownloadJobState.RUNNING, DownloadJobState.SEEDING);
+  }
+
+  public boolean stopSeeding() throws IOException {
+    synchronized (this) {
+      if (state != DownloadJobState.SEEDING) {
+        return false;
+      }
+      markFinished(DownloadJobState.COMPLETED, null);
+    }
+    download.stop();
+    return true;
+  }
+
+  public void pause() throws IOException {
+    // Stopping joins the peer threads, which can take seconds, so only the
+    // state change happens under the lock
+    synchronized (this) {
+      // A recheck can't be paused halfway, cancel the job instead
+      if (
+        state.isFinished() ||
+        state == DownloadJobState.CHECKING ||
+        state == DownloadJobState.PAUSED ||
+        state == DownloadJobState.SEEDING
+      ) {
+        throw new IllegalStateException("Job " + id + " is " + state);
+      }
+      boolean wasRunning = state == DownloadJobState.RUNNING;
+      state = DownloadJobState.PAUSED;
+      if (!wasRunning) {
+        return;
+      }
+      stopping = true;
+    }
+    try {
+      download.stop();
+    } finally {
+      synchronized (this) {
+        stopping = false;
+      }
+    }
+  }
+
+  public synchronized void resume(ExecutorService executor, Runnable runner) {
+    if (state != DownloadJobState.PAUSED) {
+      throw new IllegalStateException("Job " + id + " is " + state);
+    }
+    // Starting now would race the stop still in progress, or the earlier
+    // run still announcing, which would then start the download itself
+    if (stopping || run == null || !run.isDone()) {
+      throw new IllegalStateException("Job " + id + " is still pausing");
+    }
+    state = DownloadJobState.QUEUED;
+    submit(executor, runner);
+  }
+
+  public void finish(DownloadJobState finalState, String error)
+    throws IOException {
+    synchronized (this) {
+      markFinished(finalState, error);
+    }
+    download.stop();
+  }
+
+  private void markFinished(DownloadJobState finalState, String error) {
+    state = finalState;
+    this.error = error;
+    finishedAt = Instant.now();
+  }
+
+  public synchronized DownloadJobStatus toStatus() {
+    return new DownloadJobStatus(
+      id,
+      getTorrent().getName(),
+      getTorrent().getInfoHashHex(),
+      state,
+      download.getPriority(),
+      download.getCompletedCount(),
+      download.getNumPieces(),
+      download.getActiveConnections(),
+      download.getUploadedBytes(),
+      createdAt,
+      deadline,
+      finishedAt,
+      error
+    );
+  }
+}
@@ -0,0 +1,93 @@
+package com.torring.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class EndgameStats {
+
+  private final AtomicLong startedAt = new AtomicLong();
+  private final AtomicLong finishedAt = new AtomicLong();
+  private final AtomicLong redundantRequests = new AtomicLong();
+  private final AtomicLong redundantWins = new AtomicLong();
+  private final AtomicLong cancelsSent = new AtomicLong();
+  private final AtomicLong duplicateBlocks = new AtomicLong();
+  private final AtomicLong maxDuplicateLagNanos = new AtomicLong();
+
+  public void start() {
+    startedAt.compareAndSet(0, System.nanoTime());
+  }
+
+  public void finish() {
+    if (startedAt.get() != 0) {
+      finishedAt.compareAndSet(0, System.nanoTime());
+    }
+  }
+
+  public boolean isStarted() {
+    return startedAt.get() != 0;
+  }
+
+  public void redundantRequest() {
+    redundantRequests.incrementAndGet();
+  }
+
+  public void redundantWin() {
+    redundantWins.incrementAndGet();
+  }
+
+  public void cancelSent() {
+    cancelsSent.incrementAndGet();
+  }
+
+  public void duplicateBlock(long receivedFirstAt) {
+    // How much later the slower copy showed up is time endgame saved us
+    duplicateBlocks.incrementAndGet();
+    maxDuplicateLagNanos.accumulateAndGet(
+      System.nanoTime() - receivedFirstAt,
+      Math::max
+    );
+  }
+
+  public long getDurationMillis() {
+    long start = startedAt.get();
+    if (start == 0) {
+      return 0;
+    }
+    long end = finishedAt.get() != 0 ? finishedAt.get() : System.nanoTime();
+    return TimeUnit.NANOSECONDS.toMillis(end - start);
+  }
+
+  public long getRedundantRequests() {
+    return redundantRequests.get();
+  }
+
+  public long getRedundantWins() {
+    return redundantWins.get();
+  }
+
+  public long getCancelsSent() {
+    return cancelsSent.get();
+  }
+
+  public long getDuplicateBlocks() {
+    return duplicateBlocks.get();
+  }
+
+  public long getSavedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxDuplicateLagNanos.get());
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+      "endgame %d ms, %d redundant requests, %d won by redundant peers, " +
+      "%d cancels, %d duplicate blocks, slowest copy trailed by %d ms",
+      getDurationMillis(),
+      getRedundantRequests(),
+      getRedundantWins(),
+      getCancelsSent(),
+      getDuplicateBlocks(),
+      getSavedMillis()
+    );
+  }
+}
@@ -0,0 +1,163 @@
+package com.torring.service;
+
+import com.torring.util.TorrentConstants;
+import com.torring.util.TorrentUtils;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class PartialPiece {
+
+  private final int index;
+  private final byte[] data;
+  private final int numBlocks;
+  private final BitSet requestedBlocks;
+  private final BitSet receivedBlocks;
+  private final long[] blockReceivedAt;
+  private final Set<PeerSession> requesters = ConcurrentHashMap.newKeySet();
+  // Who to blame if the piece fails its hash check
+  private final Set<PeerScore> contributors = new HashSet<>();
+  // Blocks that arrive in order are hashed as they come, the rest at the end
+  private final MessageDigest digest = TorrentUtils.newSha1();
+  private int hashedBlocks;
+  private boolean done;
+
+  public PartialPiece(int index, int length) {
+    this.index = index;
+    this.data = new byte[length];
+    this.numBlocks =
+      (int) Math.ceil((double) length / TorrentConstants.BLOCK_SIZE);
+    this.requestedBlocks = new BitSet(numBlocks);
+    this.receivedBlocks = new BitSet(numBlocks);
+    this.blockReceivedAt = new long[numBlocks];
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public byte[] getData() {
+    return data;
+  }
+
+  public synchronized boolean hasUnrequestedBlocks() {
+    return requestedBlocks.nextClearBit(0) < numBlocks;
+  }
+
+  public synchronized int nextBlockOffset() {
+    int block = requestedBlocks.nextClearBit(0);
+    requestedBlocks.set(block);
+    return block * TorrentConstants.BLOCK_SIZE;
+  }
+
+  public int getNumBlocks() {
+    return numBlocks;
+  }
+
+  public Set<PeerSession> getRequesters() {
+    return requesters;
+  }
+
+  public int blockLength(int begin) {
+    return Math.min(TorrentConstants.BLOCK_SIZE, data.length - begin);
+  }
+
+  public synchronized boolean receiveBlock(
+    ByteBuffer source,
+    int sourceOffset,
+    int begin,
+    PeerScore contributor
+  ) {
+    int block = begin / TorrentConstants.BLOCK_SIZE;
+    if (receivedBlocks.get(block)) {
+      return false;
+    }
+    source.get(sourceOffset, data, begin, blockLength(begin));
+    receivedBlocks.set(block);
+    blockReceivedAt[block] = System.nanoTime();
+    contributors.add(contributor);
+    // Catching up after a gap is left to the verifier, not the network thread
+    if (block == hashedBlocks) {
+      hashBlock();
+    }
+    return true;
+  }
+
+  public synchronized boolean isHashed() {
+    return hashedBlocks == numBlocks;
+  }
+
+  public synchronized boolean verify(byte[] pieceHashes) {
+    while (hashedBlocks < numBlocks && receivedBlocks.get(hashedBlocks)) {
+      hashBlock();
+    }
+    if (!isHashed()) {
+      return false;
+    }
+    int offset = index * 20;
+    return Arrays.equals(
+      digest.digest(),
+      0,
+      20,
+      pieceHashes,
+      offset,
+      offset + 20
+    );
+  }
+
+  private void hashBlock() {
+    int begin = hashedBlocks * TorrentConstants.BLOCK_SIZE;
+    digest.update(data, begin, blockLength(begin));
+    hashedBlocks++;
+  }
+
+  public synchronized Set<PeerScore> getContributors() {
+    return new HashSet<>(contributors);
+  }
+
+  public synchronized boolean isBlockReceived(int begin) {
+    return receivedBlocks.get(begin / TorrentConstants.BLOCK_SIZE);
+  }
+
+  public synchronized long blockReceivedAt(int begin) {
+    return blockReceivedAt[begin / TorrentConstants.BLOCK_SIZE];
+  }
+
+  public synchronized boolean hasReceivedBlocks() {
+    return !receivedBlocks.isEmpty();
+  }
+
+  public synchronized boolean isComplete() {
+    return receivedBlocks.cardinality() == numBlocks;
+  }
+
+  public synchronized boolean isDone() {
+    return done;
+  }
+
+  public synchronized boolean claimCompletion() {
+    // In endgame several sessions can finish the same piece, only one wins
+    if (done || !isComplete()) {
+      return false;
+    }
+    done = true;
+    return true;
+  }
+
+  public synchronized void releaseBlock(int begin) {
+    int block = begin / TorrentConstants.BLOCK_SIZE;
+    if (!receivedBlocks.get(block)) {
+      requestedBlocks.clear(block);
+    }
+  }
+
+  public synchronized void resetRequests() {
+    // Blocks that were requested but never arrived have to be asked for again
+    requestedBlocks.clear();
+    requestedBlocks.or(receivedBlocks);
+  }
+}
@@ -0,0 +1,222 @@
+package com.torring.service;
+
+import com.torring.util.TorrentConstants;
+import com.torring.util.TorrentUtils;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Accepts peers on one port for every torrent. Handshakes are read without
+// blocking, then the connection goes to whichever download it names.
+public class PeerListener implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(
+    PeerListener.class
+  );
+
+  private final int port;
+  private final int backlog;
+  private final Router router;
+  private Selector selector;
+  private ServerSocketChannel server;
+  private Thread thread;
+  private volatile boolean running;
+
+  public interface Router {
+    TorrentDownload find(String infoHashHex);
+  }
+
+  private static class PendingHandshake {
+
+    private final ByteBuffer handshake = ByteBuffer.allocate(
+      TorrentConstants.HANDSHAKE_LENGTH
+    );
+    private final long acceptedAt = System.currentTimeMillis();
+  }
+
+  public PeerListener(int port, int backlog, Router router) {
+    this.port = port;
+    this.backlog = backlog;
+    this.router = router;
+  }
+
+  public boolean isListening() {
+    return running;
+  }
+
+  public int getPort() {
+    return running ? server.socket().getLocalPort() : port;
+  }
+
+  public void start() throws IOException {
+    try {
+      selector = Selector.open();
+      server = ServerSocketChannel.open();
+      server.bind(new InetSocketAddress(port), backlog);
+      server.configureBlocking(false);
+      server.register(selector, SelectionKey.OP_ACCEPT);
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+    running = true;
+    thread =
+      Thread.ofPlatform().name("peer-listener").daemon().start(this::run);
+    logger.info("Listening for peers on port {}", getPort());
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    if (thread != null) {
+      selector.wakeup();
+      try {
+        thread.join(TorrentConstants.STOP_TIMEOUT_SECONDS * 1000L);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      thread = null;
+    }
+    if (selector != null) {
+      for (SelectionKey key : selector.keys()) {
+        closeQuietly(key.channel());
+      }
+      closeQuietly(selector);
+      selector = null;
+    }
+    if (server != null) {
+      closeQuietly(server);
+      server = null;
+    }
+  }
+
+  private void run() {
+    while (running) {
+      try {
+        selector.select(TorrentConstants.IDLE_POLL_INTERVAL);
+        List<SelectionKey> handshaken = new ArrayList<>();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+          } else if (key.isReadable() && readHandshake(key)) {
+            handshaken.add(key);
+          }
+        }
+        expireHandshakes();
+        if (!handshaken.isEmpty()) {
+          for (SelectionKey key : handshaken) {
+            key.cancel();
+          }
+          // Cancelled keys only let go of their channels on the next select
+          selector.selectNow();
+          for (SelectionKey key : handshaken) {
+            route(key);
+          }
+        }
+      } catch (ClosedSelectorException e) {
+        return;
+      } catch (IOException e) {
+        logger.warn("Peer listener failed: {}", e.getMessage());
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel;
+    while ((channel = server.accept()) != null) {
+      // The kernel backlog bounds connects, this bounds unfinished handshakes
+      if (selector.keys().size() > backlog) {
+        closeQuietly(channel);
+        continue;
+      }
+      channel.configureBlocking(false);
+      channel.register(selector, SelectionKey.OP_READ, new PendingHandshake());
+    }
+  }
+
+  private boolean readHandshake(SelectionKey key) {
+    SocketChannel channel = (SocketChannel) key.channel();
+    PendingHandshake pending = (PendingHandshake) key.attachment();
+    try {
+      if (channel.read(pending.handshake) < 0) {
+        throw new EOFException("Peer closed the connection");
+      }
+      return !pending.handshake.hasRemaining();
+    } catch (IOException e) {
+      key.cancel();
+      closeQuietly(channel);
+      return false;
+    }
+  }
+
+  private void expireHandshakes() {
+    long now = System.currentTimeMillis();
+    for (SelectionKey key : selector.keys()) {
+      if (
+        key.attachment() instanceof PendingHandshake pending &&
+        now - pending.acceptedAt > TorrentConstants.CONNECTION_TIMEOUT
+      ) {
+        key.cancel();
+        closeQuietly(key.channel());
+      }
+    }
+  }
+
+  private void route(SelectionKey key) {
+    SocketChannel channel = (SocketChannel) key.channel();
+    byte[] handshake = ((PendingHandshake) key.attachment()).handshake.array();
+    String infoHashHex = TorrentUtils.bytesToHex(
+      Arrays.copyOfRange(handshake, 28, 48)
+    );
+    try {
+      TorrentDownload download = router.find(infoHashHex);
+      if (download == null) {
+        throw new RuntimeException("No active torrent " + infoHashHex);
+      }
+      TorrentService.validatePeerHandshakeMsg(
+        handshake,
+        download.getTorrent().getInfoHash()
+      );
+      channel.configureBlocking(true);
+      if (!download.acceptPeer(channel, handshake)) {
+        throw new RuntimeException(
+          "Too many inbound peers for " + download.getTorrent().getName()
+        );
+      }
+    } catch (Exception e) {
+      logger.debug(
+        "Rejected inbound peer {}: {}",
+        channel.socket().getRemoteSocketAddress(),
+        e.getMessage()
+      );
+      closeQuietly(channel);
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      // Nothing left to do with a connection we are dropping
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package com.torring.service;
+
+import java.util.concurrent.TimeUnit;
+
+// One peer's track record, kept across reconnects for the life of a download
+public class PeerScore {
+
+  private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(2);
+  private static final double RATE_SMOOTHING = 0.5;
+
+  private final String peer;
+  private long downloadedBytes;
+  private long windowStartedAt = System.nanoTime();
+  private long windowBytes;
+  // Bytes per second
+  private double rate;
+  private long lastBlockAt;
+  private int errors;
+  private double hashFailureBlame;
+  // Volatile for the lock-free reads, set under the lock so only one
+  // caller wins each snub and ban
+  private volatile boolean snubbed;
+  private volatile boolean banned;
+
+  public PeerScore(String peer) {
+    this.peer = peer;
+  }
+
+  public String getPeer() {
+    return peer;
+  }
+
+  public boolean isSnubbed() {
+    return snubbed;
+  }
+
+  public boolean isBanned() {
+    return banned;
+  }
+
+  public synchronized long getDownloadedBytes() {
+    return downloadedBytes;
+  }
+
+  public synchronized double getRate() {
+    fold(System.nanoTime());
+    return rate;
+  }
+
+  public synchronized long getLastBlockAt() {
+    return lastBlockAt;
+  }
+
+  public synchronized int getErrors() {
+    return errors;
+  }
+
+  public synchronized double getHashFailureBlame() {
+    return hashFailureBlame;
+  }
+
+  public synchronized double getScore() {
+    if (banned || snubbed) {
+      return 0;
+    }
+    // Throughput, discounted by how often the peer has let us down
+    return getRate() / (1 + errors + hashFailureBlame);
+  }
+
+  public synchronized void blockReceived(int bytes, long now) {
+    fold(now);
+    downloadedBytes += bytes;
+    windowBytes += bytes;
+    lastBlockAt = now;
+    snubbed = false;
+  }
+
+  public synchronized void error() {
+    errors++;
+  }
+
+  synchronized double blame(double share) {
+    hashFailureBlame += share;
+    return hashFailureBlame;
+  }
+
+  synchronized boolean snub() {
+    if (snubbed) {
+      return false;
+    }
+    snubbed = true;
+    return true;
+  }
+
+  synchronized boolean ban() {
+    if (banned) {
+      return false;
+    }
+    banned = true;
+    return true;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+      "%s rate=%.0fB/s errors=%d blame=%.2f%s%s",
+      peer,
+      rate,
+      errors,
+      hashFailureBlame,
+      snubbed ? " snubbed" : "",
+      banned ? " banned" : ""
+    );
+  }
+
+  private void fold(long now) {
+    // Idle windows count too, so a peer that goes quiet loses its rate
+    long elapsed = now - windowStartedAt;
+    if (elapsed < RATE_WINDOW_NANOS) {
+      return;
+    }
+    double sample = windowBytes * 1e9 / elapsed;
+    rate = RATE_SMOOTHING * sample + (1 - RATE_SMOOTHING) * rate;
+    windowStartedAt = now;
+    windowBytes = 0;
+  }
+}
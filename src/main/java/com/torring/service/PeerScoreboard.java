@@ -0,0 +1,121 @@
+package com.torring.service;
+
+import com.torring.model.Torrent;
+import com.torring.util.TorrentConstants;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class PeerScoreboard {
+
+  private static final Logger logger = LoggerFactory.getLogger(
+    PeerScoreboard.class
+  );
+
+  private static final long THRESHOLD_REFRESH_NANOS =
+    TimeUnit.SECONDS.toNanos(1);
+  private static final double FAVOURED_FRACTION = 0.5;
+
+  private final Torrent torrent;
+  private final AtomicLong bans = new AtomicLong(0);
+  private final AtomicLong snubs = new AtomicLong(0);
+  private final Map<String, PeerScore> scores = new ConcurrentHashMap<>();
+  // Inbound peers dial from ephemeral ports, so for them a ban covers the host
+  private final Set<String> bannedHosts = ConcurrentHashMap.newKeySet();
+  private volatile double favouredScore;
+  private volatile long favouredScoreAt;
+
+  public PeerScoreboard(Torrent torrent) {
+    this.torrent = torrent;
+  }
+
+  public long getBanCount() {
+    return bans.get();
+  }
+
+  public long getSnubCount() {
+    return snubs.get();
+  }
+
+  public PeerScore get(String peer) {
+    return scores.computeIfAbsent(peer, PeerScore::new);
+  }
+
+  public Collection<PeerScore> getScores() {
+    return Collections.unmodifiableCollection(scores.values());
+  }
+
+  public boolean isBanned(String peer) {
+    PeerScore score = scores.get(peer);
+    return score != null && score.isBanned();
+  }
+
+  public boolean isBannedHost(String host) {
+    return bannedHosts.contains(host);
+  }
+
+  public boolean isFavoured(PeerScore score) {
+    return !score.isSnubbed() && score.getScore() >= favouredScore();
+  }
+
+  public void snubbed(PeerScore score) {
+    if (score.snub()) {
+      snubs.incrementAndGet();
+      logger.info("Peer {} of {} snubbed us", score, torrent.getName());
+    }
+  }
+
+  public void hashFailed(Set<PeerScore> contributors) {
+    // Pieces fetched from several peers in endgame share the blame
+    double share = 1.0 / Math.max(1, contributors.size());
+    for (PeerScore score : contributors) {
+      if (
+        score.blame(share) >= TorrentConstants.HASH_FAILURE_BAN_LIMIT &&
+        score.ban()
+      ) {
+        bannedHosts.add(hostOf(score.getPeer()));
+        bans.incrementAndGet();
+        logger.warn(
+          "Banned peer {} of {} for sending corrupt data",
+          score,
+          torrent.getName()
+        );
+      }
+    }
+  }
+
+  private double favouredScore() {
+    long now = System.nanoTime();
+    if (now - favouredScoreAt < THRESHOLD_REFRESH_NANOS) {
+      return favouredScore;
+    }
+    // Anyone at or above half the median delivering peer gets first pick
+    List<Double> delivering = new ArrayList<>();
+    for (PeerScore score : scores.values()) {
+      double value = score.getScore();
+      if (value > 0) {
+        delivering.add(value);
+      }
+    }
+    Collections.sort(delivering);
+    favouredScore =
+      delivering.isEmpty()
+        ? 0
+        : delivering.get(delivering.size() / 2) * FAVOURED_FRACTION;
+    favouredScoreAt = now;
+    return favouredScore;
+  }
+
+  private static String hostOf(String peer) {
+    int colon = peer.lastIndexOf(':');
+    return colon < 0 ? peer : peer.substring(0, colon);
+  }
+}
@@ -0,0 +1,1071 @@
+package com.torring.service;
+
+import com.torring.model.FileSegment;
+import com.torring.model.Torrent;
+import com.torring.util.TorrentConstants;
+import com.torring.util.TorrentUtils;
+import io.micrometer.core.instrument.Counter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class PeerSession implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(
+    PeerSession.class
+  );
+
+  private final Torrent torrent;
+  private final String peer;
+  private final String host;
+  private final int port;
+  private final boolean inbound;
+  // Accepted by the listener, handed over on first connect
+  private SocketChannel acceptedChannel;
+  private final byte[] acceptedHandshake;
+  private SocketChannel channel;
+  private volatile Socket socket;
+  private PeerWireCodec codec;
+  private final BitSet peerPieces = new BitSet();
+  // Fast Extension state, negotiated again on every connect
+  private boolean fastExtension;
+  private final BitSet allowedFast = new BitSet();
+  private final BitSet suggestedPieces = new BitSet();
+  private final BitSet rejectedPieces = new BitSet();
+  private boolean registeredWithPicker;
+  private long lastMessageSentAt;
+  private final RequestWindow requestWindow;
+  private final PiecePicker piecePicker;
+  private final TorrentShare share;
+  private final TorrentUploader uploader;
+  private final PeerScoreboard scoreboard;
+  private final PeerScore score;
+  private final TorrentMetrics metrics;
+  private Counter peerBytes;
+  // Other sessions cancel our requests in endgame, so these are shared
+  private final Map<Long, OutstandingRequest> outstandingRequests =
+    new ConcurrentHashMap<>();
+  private final Map<Long, PartialPiece> cancelledRequests =
+    new ConcurrentHashMap<>();
+  // Writes block on the socket, and a monitor held there would pin the
+  // virtual thread's carrier
+  private final ReentrantLock writeLock = new ReentrantLock();
+  // Messages from other threads, written by this session's own writer so a
+  // peer that stops reading never blocks the thread that sent them
+  private final BlockingQueue<OutboundMessage> outbound =
+    new LinkedBlockingQueue<>();
+  private Thread writer;
+  // When the write in progress started, zero while none is
+  private volatile long writingSince;
+  private final Map<Integer, PartialPiece> activePieces =
+    new LinkedHashMap<>();
+  private PartialPiece requestingPiece;
+  private boolean choked;
+  private long lastBlockAt;
+  private volatile boolean choking = true;
+  private volatile boolean peerInterested;
+  private final AtomicLong downloadedBytes = new AtomicLong(0);
+  private final AtomicLong uploadedBytes = new AtomicLong(0);
+
+  public interface PieceHandler {
+    void onPiece(PartialPiece piece) throws Exception;
+  }
+
+  private interface Write {
+    void run(PeerWireCodec codec) throws IOException;
+  }
+
+  private static class OutboundMessage {
+
+    private final byte messageId;
+    private final int pieceIndex;
+    private final int begin;
+    private final int length;
+
+    private OutboundMessage(
+      byte messageId,
+      int pieceIndex,
+      int begin,
+      int length
+    ) {
+      this.messageId = messageId;
+      this.pieceIndex = pieceIndex;
+      this.begin = begin;
+      this.length = length;
+    }
+  }
+
+  private static class OutstandingRequest {
+
+    private final PartialPiece piece;
+    private final boolean endgame;
+    private final long sentAt = System.nanoTime();
+
+    private OutstandingRequest(PartialPiece piece, boolean endgame) {
+      this.piece = piece;
+      this.endgame = endgame;
+    }
+  }
+
+  public PeerSession(
+    Torrent torrent,
+    String peer,
+    int maxOutstandingRequests,
+    PiecePicker piecePicker,
+    TorrentShare share,
+    TorrentUploader uploader,
+    PeerScoreboard scoreboard
+  ) {
+    this(
+      torrent,
+      peer,
+      null,
+      null,
+      maxOutstandingRequests,
+      piecePicker,
+      share,
+      uploader,
+      scoreboard
+    );
+  }
+
+  public PeerSession(
+    Torrent torrent,
+    SocketChannel acceptedChannel,
+    byte[] acceptedHandshake,
+    int maxOutstandingRequests,
+    PiecePicker piecePicker,
+    TorrentShare share,
+    TorrentUploader uploader,
+    PeerScoreboard scoreboard
+  ) throws IOException {
+    this(
+      torrent,
+      peerAddress(acceptedChannel),
+      acceptedChannel,
+      acceptedHandshake,
+      maxOutstandingRequests,
+      piecePicker,
+      share,
+      uploader,
+      scoreboard
+    );
+  }
+
+  private PeerSession(
+    Torrent torrent,
+    String peer,
+    SocketChannel acceptedChannel,
+    byte[] acceptedHandshake,
+    int maxOutstandingRequests,
+    PiecePicker piecePicker,
+    TorrentShare share,
+    TorrentUploader uploader,
+    PeerScoreboard scoreboard
+  ) {
+    this.torrent = torrent;
+    this.peer = peer;
+    this.inbound = acceptedChannel != null;
+    this.acceptedChannel = acceptedChannel;
+    this.acceptedHandshake = acceptedHandshake;
+    this.piecePicker = piecePicker;
+    this.share = share;
+    this.uploader = uploader;
+    this.scoreboard = scoreboard;
+    this.score = scoreboard.get(peer);
+    this.metrics = share.getMetrics();
+    this.requestWindow =
+      new RequestWindow(
+        maxOutstandingRequests,
+        metrics.getRequestWindowSummary()
+      );
+    String[] peerAddress = peer.split(":");
+    this.host = peerAddress[0];
+    this.port = Integer.parseInt(peerAddress[1]);
+  }
+
+  public Torrent getTorrent() {
+    return torrent;
+  }
+
+  public String getPeer() {
+    return peer;
+  }
+
+  public BitSet getPeerPieces() {
+    return peerPieces;
+  }
+
+  public boolean isInbound() {
+    return inbound;
+  }
+
+  public boolean isFastExtension() {
+    return fastExtension;
+  }
+
+  public boolean isPeerSeed() {
+    return peerPieces.cardinality() == piecePicker.getNumPieces();
+  }
+
+  public PeerScore getScore() {
+    return score;
+  }
+
+  public RequestWindow getRequestWindow() {
+    return requestWindow;
+  }
+
+  public boolean isChoking() {
+    return choking;
+  }
+
+  public boolean isPeerInterested() {
+    return peerInterested;
+  }
+
+  public long getDownloadedBytes() {
+    return downloadedBytes.get();
+  }
+
+  public long getUploadedBytes() {
+    return uploadedBytes.get();
+  }
+
+  public boolean isAlive() {
+    return socket != null && socket.isConnected() && !socket.isClosed();
+  }
+
+  public void ensureConnected() throws Exception {
+    if (isAlive()) {
+      sendKeepAliveIfIdle();
+      return;
+    }
+    close();
+    connect();
+  }
+
+  public void downloadPieces(PieceHandler pieceHandler) throws Exception {
+    ensureConnected();
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        fillPipeline();
+        flushRequests();
+        // An unchoked peer may still be requesting from us, keep reading,
+        // otherwise only take in what it has already sent
+        if (
+          outstandingRequests.isEmpty() &&
+          (choking || !peerInterested) &&
+          !codec.hasInput()
+        ) {
+          return;
+        }
+        handleMessage(readMessage(), pieceHandler);
+        checkSnubbed();
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  public void serveUploads() throws Exception {
+    ensureConnected();
+    // Two seeds have nothing to trade
+    if (isPeerSeed()) {
+      return;
+    }
+    try {
+      while (isAlive()) {
+        try {
+          handleMessage(readMessage(), null);
+        } catch (SocketTimeoutException e) {
+          // A quiet peer keeps its connection only while it still wants data
+          if (!peerInterested) {
+            return;
+          }
+          sendKeepAliveIfIdle();
+        }
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  public void choke() {
+    if (!choking) {
+      choking = true;
+      enqueue(TorrentConstants.CHOKE_ID, 0, 0, 0);
+    }
+  }
+
+  public void unchoke() {
+    if (choking) {
+      choking = false;
+      enqueue(TorrentConstants.UNCHOKE_ID, 0, 0, 0);
+    }
+  }
+
+  public void notInterested() {
+    enqueue(TorrentConstants.NOT_INTERESTED_ID, 0, 0, 0);
+  }
+
+  public void sendHave(int pieceIndex) {
+    enqueue(TorrentConstants.HAVE_ID, pieceIndex, 0, 0);
+  }
+
+  public void closeIfWriteStalled(long now) {
+    long since = writingSince;
+    if (
+      since == 0 ||
+      now - since <
+      TimeUnit.MILLISECONDS.toNanos(TorrentConstants.WRITE_TIMEOUT)
+    ) {
+      return;
+    }
+    logger.info("Closing {}, it stopped reading what we send", peer);
+    // The blocked write fails and the owning thread closes the session
+    closeSocket();
+  }
+
+  public List<Integer> abandonPieces() {
+    List<Integer> abandoned = new ArrayList<>(activePieces.keySet());
+    for (PartialPiece piece : activePieces.values()) {
+      piece.getRequesters().remove(this);
+      piecePicker.release(piece);
+    }
+    activePieces.clear();
+    outstandingRequests.clear();
+    cancelledRequests.clear();
+    requestingPiece = null;
+    return abandoned;
+  }
+
+  public void cancelRequest(PartialPiece piece, int begin) {
+    long key = blockKey(piece.getIndex(), begin);
+    if (outstandingRequests.remove(key) == null) {
+      return;
+    }
+    cancelledRequests.put(key, piece);
+    enqueue(
+      TorrentConstants.CANCEL_ID,
+      piece.getIndex(),
+      begin,
+      piece.blockLength(begin)
+    );
+    piecePicker.getEndgameStats().cancelSent();
+  }
+
+  private int windowSize() {
+    // A snubbed peer gets one request at a time until it delivers again
+    return score.isSnubbed() ? 1 : requestWindow.getSize();
+  }
+
+  private void fillPipeline() throws InterruptedException, IOException {
+    if (score.isBanned()) {
+      throw new IOException("Peer " + peer + " is banned");
+    }
+    // While choked, a fast peer still serves the pieces it allowed us
+    if (choked && !canRequestWhileChoked()) {
+      return;
+    }
+    activePieces.values().removeIf(piece -> dropIfDone(piece));
+    while (outstandingRequests.size() < windowSize()) {
+      if (
+        requestingPiece == null ||
+        !requestingPiece.hasUnrequestedBlocks() ||
+        !mayRequest(requestingPiece.getIndex())
+      ) {
+        requestingPiece = nextPiece();
+        if (requestingPiece == null) {
+          if (!choked && !score.isSnubbed()) {
+            fillEndgameRequests();
+          }
+          return;
+        }
+        activePieces.put(requestingPiece.getIndex(), requestingPiece);
+        requestingPiece.getRequesters().add(this);
+      }
+      int begin = requestingPiece.nextBlockOffset();
+      sendRequest(requestingPiece, begin, false);
+    }
+  }
+
+  private PartialPiece nextPiece() throws InterruptedException {
+    // Blocks a peer rejected go out again before a new piece is started
+    for (PartialPiece piece : activePieces.values()) {
+      if (
+        !piece.isDone() &&
+        piece.hasUnrequestedBlocks() &&
+        mayRequest(piece.getIndex())
+      ) {
+        return piece;
+      }
+    }
+    BitSet candidates = peerPieces;
+    if (choked || !rejectedPieces.isEmpty()) {
+      candidates = (BitSet) peerPieces.clone();
+      if (choked) {
+        candidates.and(allowedFast);
+      }
+      candidates.andNot(rejectedPieces);
+    }
+    // Never block on memory while our own blocks are waiting to be read
+    boolean mayWait = outstandingRequests.isEmpty();
+    boolean favoured = scoreboard.isFavoured(score);
+    if (suggestedPieces.intersects(candidates)) {
+      BitSet suggested = (BitSet) suggestedPieces.clone();
+      suggested.and(candidates);
+      PartialPiece piece = piecePicker.pick(suggested, mayWait, favoured);
+      if (piece != null) {
+        suggestedPieces.clear(piece.getIndex());
+        return piece;
+      }
+      // Suggestions are only hints, and these ones are taken already
+      suggestedPieces.andNot(suggested);
+    }
+    PartialPiece piece = piecePicker.pick(candidates, mayWait, favoured);
+    if (piece == null && !choked && !rejectedPieces.isEmpty()) {
+      // Pieces the peer refused get another go once it has nothing else
+      rejectedPieces.clear();
+    }
+    return piece;
+  }
+
+  private boolean canRequestWhileChoked() {
+    return fastExtension && allowedFast.intersects(peerPieces);
+  }
+
+  private boolean mayRequest(int pieceIndex) {
+    return (
+      !rejectedPieces.get(pieceIndex) &&
+      (!choked || allowedFast.get(pieceIndex))
+    );
+  }
+
+  private void fillEndgameRequests() throws IOException {
+    // Once everything is requested, race the stragglers on other peers too
+    while (outstandingRequests.size() < windowSize()) {
+      PartialPiece piece = piecePicker.pickEndgame(
+        peerPieces,
+        activePieces.keySet()
+      );
+      if (piece == null) {
+        return;
+      }
+      activePieces.put(piece.getIndex(), piece);
+      piece.getRequesters().add(this);
+      for (int block = 0; block < piece.getNumBlocks(); block++) {
+        int begin = block * TorrentConstants.BLOCK_SIZE;
+        if (
+          outstandingRequests.size() >= windowSize() ||
+          piece.isBlockReceived(begin)
+        ) {
+          continue;
+        }
+        sendRequest(piece, begin, true);
+        piecePicker.getEndgameStats().redundantRequest();
+      }
+    }
+  }
+
+  private boolean dropIfDone(PartialPiece piece) {
+    if (!piece.isDone()) {
+      return false;
+    }
+    piece.getRequesters().remove(this);
+    outstandingRequests
+      .keySet()
+      .removeIf(key -> (int) (key >>> 32) == piece.getIndex());
+    return true;
+  }
+
+  private void handleMessage(int messageId, PieceHandler pieceHandler)
+    throws Exception {
+    switch (messageId) {
+      case TorrentConstants.CHOKE_ID -> choked = true;
+      case TorrentConstants.UNCHOKE_ID -> {
+        if (choked) {
+          choked = false;
+          lastBlockAt = System.nanoTime();
+          // A choke drops our pending requests, so ask for them again.
+          // Fast peers reject the ones they drop instead.
+          if (fastExtension) {
+            return;
+          }
+          for (long key : outstandingRequests.keySet()) {
+            OutstandingRequest request = outstandingRequests.get(key);
+            if (request != null) {
+              sendBlockMessage(
+                TorrentConstants.REQUEST_ID,
+                request.piece,
+                (int) key
+              );
+            }
+          }
+        }
+      }
+      case TorrentConstants.PIECE_ID -> {
+        int blockLength = receiveBlock(
+          codec.getPayloadInt(0),
+          codec.getPayloadInt(4),
+          pieceHandler
+        );
+        // Sleeping here lets TCP push back on the peer
+        share.throttle(blockLength);
+      }
+      case TorrentConstants.HAVE_ID -> {
+        int pieceIndex = codec.getPayloadInt(0);
+        // Past the end it would grow the bitfield and skew availability
+        if (!isValidPiece(pieceIndex)) {
+          throw new IOException(
+            "Peer " + peer + " has invalid piece " + pieceIndex
+          );
+        }
+        if (!peerPieces.get(pieceIndex)) {
+          peerPieces.set(pieceIndex);
+          piecePicker.peerHas(pieceIndex);
+        }
+      }
+      case TorrentConstants.INTERESTED_ID -> {
+        peerInterested = true;
+        uploader.interestChanged(this);
+      }
+      case TorrentConstants.NOT_INTERESTED_ID -> {
+        peerInterested = false;
+        uploader.interestChanged(this);
+      }
+      case TorrentConstants.REQUEST_ID -> serveRequest();
+      case TorrentConstants.REJECT_REQUEST_ID -> requestRejected(
+        codec.getPayloadInt(0),
+        codec.getPayloadInt(4)
+      );
+      case TorrentConstants.ALLOWED_FAST_ID -> {
+        int pieceIndex = codec.getPayloadInt(0);
+        if (isValidPiece(pieceIndex)) {
+          allowedFast.set(pieceIndex);
+        }
+      }
+      case TorrentConstants.SUGGEST_PIECE_ID -> {
+        int pieceIndex = codec.getPayloadInt(0);
+        if (isValidPiece(pieceIndex)) {
+          suggestedPieces.set(pieceIndex);
+        }
+      }
+      default -> {
+        // Other messages don't affect the request pipeline
+      }
+    }
+  }
+
+  private void requestRejected(int pieceIndex, int begin) {
+    long key = blockKey(pieceIndex, begin);
+    OutstandingRequest request = outstandingRequests.remove(key);
+    if (request == null) {
+      // Our cancel and the peer's reject crossed on the wire
+      cancelledRequests.remove(key);
+      return;
+    }
+    // Endgame blocks are still out with other peers
+    if (!request.endgame) {
+      request.piece.releaseBlock(begin);
+    }
+    allowedFast.clear(pieceIndex);
+    if (choked) {
+      return;
+    }
+    // Unchoked and still refused, so someone else has to fetch this piece
+    rejectedPieces.set(pieceIndex);
+    for (long outstanding : outstandingRequests.keySet()) {
+      if ((int) (outstanding >>> 32) == pieceIndex) {
+        return;
+      }
+    }
+    activePieces.remove(pieceIndex);
+    request.piece.getRequesters().remove(this);
+    if (requestingPiece == request.piece) {
+      requestingPiece = null;
+    }
+    piecePicker.release(request.piece);
+  }
+
+  private void serveRequest() throws IOException {
+    int pieceIndex = codec.getPayloadInt(0);
+    int begin = codec.getPayloadInt(4);
+    int length = codec.getPayloadInt(8);
+    // Requests that crossed our choke on the wire are dropped, as are
+    // requests for pieces we don't have yet. Fast peers are told so.
+    if (choking || !uploader.canServe(pieceIndex, begin, length)) {
+      if (fastExtension) {
+        write(codec -> {
+          codec.writeBlockMessage(
+            TorrentConstants.REJECT_REQUEST_ID,
+            pieceIndex,
+            begin,
+            length
+          );
+          codec.flush();
+        });
+      }
+      return;
+    }
+    TorrentStorage storage = uploader.getStorage();
+    // Map the range before the header goes out, a bad one must not leave
+    // half a message on the wire
+    List<FileSegment> segments = storage
+      .getMapper()
+      .mapRange((long) pieceIndex * torrent.getPieceLength() + begin, length);
+    try {
+      write(codec -> {
+        codec.writePieceHeader(pieceIndex, begin, length);
+        codec.flush();
+        storage.transferTo(segments, channel);
+      });
+    } catch (IOException | RuntimeException e) {
+      // The peer may be left mid-message, this connection can't be reused
+      close();
+      throw new IOException(
+        "Failed to send piece " + pieceIndex + " to " + peer,
+        e
+      );
+    }
+    uploadedBytes.addAndGet(length);
+    uploader.uploaded(length);
+  }
+
+  private int receiveBlock(
+    int pieceIndex,
+    int begin,
+    PieceHandler pieceHandler
+  ) throws Exception {
+    long key = blockKey(pieceIndex, begin);
+    OutstandingRequest request = outstandingRequests.remove(key);
+    if (request == null) {
+      PartialPiece cancelled = cancelledRequests.remove(key);
+      if (cancelled != null) {
+        piecePicker
+          .getEndgameStats()
+          .duplicateBlock(cancelled.blockReceivedAt(begin));
+      }
+      return 0;
+    }
+    PartialPiece piece = request.piece;
+    int blockLength = codec.getPayloadLength() - 8;
+    if (blockLength != piece.blockLength(begin)) {
+      throw new IOException(
+        "Block " + begin + " of piece " + pieceIndex + " has the wrong length"
+      );
+    }
+    long now = System.nanoTime();
+    peerBytes.increment(blockLength);
+    share.received(blockLength);
+    downloadedBytes.addAndGet(blockLength);
+    lastBlockAt = now;
+    score.blockReceived(blockLength, now);
+    metrics
+      .getBlockRttTimer()
+      .record(now - request.sentAt, TimeUnit.NANOSECONDS);
+    requestWindow.blockReceived(
+      blockLength,
+      now - request.sentAt,
+      outstandingRequests.size(),
+      now
+    );
+    // The block goes straight from the read buffer into its piece slot
+    if (
+      !piece.receiveBlock(
+        codec.getPayload(),
+        codec.getPayloadOffset() + 8,
+        begin,
+        score
+      )
+    ) {
+      piecePicker
+        .getEndgameStats()
+        .duplicateBlock(piece.blockReceivedAt(begin));
+      return blockLength;
+    }
+    if (request.endgame) {
+      piecePicker.getEndgameStats().redundantWin();
+    }
+    for (PeerSession requester : piece.getRequesters()) {
+      if (requester != this) {
+        requester.cancelRequest(piece, begin);
+      }
+    }
+    if (piece.claimCompletion()) {
+      activePieces.remove(pieceIndex);
+      piece.getRequesters().remove(this);
+      pieceHandler.onPiece(piece);
+    }
+    return blockLength;
+  }
+
+  private void sendRequest(PartialPiece piece, int begin, boolean endgame)
+    throws IOException {
+    if (outstandingRequests.isEmpty()) {
+      // Time spent with nothing asked for doesn't count against the peer
+      lastBlockAt = System.nanoTime();
+    }
+    sendBlockMessage(TorrentConstants.REQUEST_ID, piece, begin);
+    outstandingRequests.put(
+      blockKey(piece.getIndex(), begin),
+      new OutstandingRequest(piece, endgame)
+    );
+  }
+
+  private void sendBlockMessage(byte messageId, PartialPiece piece, int begin)
+    throws IOException {
+    write(codec ->
+      codec.writeBlockMessage(
+        messageId,
+        piece.getIndex(),
+        begin,
+        piece.blockLength(begin)
+      )
+    );
+  }
+
+  private void flushRequests() throws IOException {
+    // Requests are queued up by the pipeline and go out in one write
+    write(PeerWireCodec::flush);
+  }
+
+  private void write(Write write) throws IOException {
+    writeLock.lock();
+    try {
+      if (codec == null) {
+        throw new IOException("Peer session is closed");
+      }
+      // Any write can block once the peer's receive window is full
+      writingSince = System.nanoTime();
+      try {
+        write.run(codec);
+      } finally {
+        writingSince = 0;
+      }
+      lastMessageSentAt = System.currentTimeMillis();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void enqueue(byte messageId, int pieceIndex, int begin, int length) {
+    outbound.add(new OutboundMessage(messageId, pieceIndex, begin, length));
+  }
+
+  private void drainOutbound() {
+    try {
+      while (true) {
+        OutboundMessage first = outbound.take();
+        write(codec -> {
+          // Everything queued so far goes out in one flush
+          for (
+            OutboundMessage message = first;
+            message != null;
+            message = outbound.poll()
+          ) {
+            writeOutbound(codec, message);
+          }
+          codec.flush();
+        });
+      }
+    } catch (InterruptedException e) {
+      // The session is closing
+    } catch (IOException e) {
+      // The peer may be left mid-message, and the owning thread notices a
+      // closed socket on its next read
+      closeSocket();
+    }
+  }
+
+  private static void writeOutbound(
+    PeerWireCodec codec,
+    OutboundMessage message
+  ) throws IOException {
+    switch (message.messageId) {
+      case TorrentConstants.HAVE_ID -> codec.writeIntMessage(
+        message.messageId,
+        message.pieceIndex
+      );
+      case TorrentConstants.CANCEL_ID -> codec.writeBlockMessage(
+        message.messageId,
+        message.pieceIndex,
+        message.begin,
+        message.length
+      );
+      default -> codec.writeMessage(message.messageId);
+    }
+  }
+
+  private int readMessage() throws IOException {
+    // The socket wakes us up often enough to notice a peer that stops
+    // sending blocks, but only a long silence kills the session
+    long startedAt = System.currentTimeMillis();
+    while (true) {
+      try {
+        return codec.readMessage();
+      } catch (SocketTimeoutException e) {
+        if (
+          System.currentTimeMillis() - startedAt >=
+          TorrentConstants.READ_TIMEOUT
+        ) {
+          throw e;
+        }
+        checkSnubbed();
+      }
+    }
+  }
+
+  private void checkSnubbed() throws IOException {
+    if (
+      choked ||
+      outstandingRequests.isEmpty() ||
+      score.isSnubbed() ||
+      System.nanoTime() - lastBlockAt <
+      TimeUnit.MILLISECONDS.toNanos(TorrentConstants.SNUB_TIMEOUT)
+    ) {
+      return;
+    }
+    scoreboard.snubbed(score);
+    // Hand our blocks back so peers that are delivering can take them
+    List<Integer> reassigned = new ArrayList<>(activePieces.keySet());
+    for (long key : outstandingRequests.keySet()) {
+      OutstandingRequest request = outstandingRequests.get(key);
+      if (request != null) {
+        sendBlockMessage(TorrentConstants.CANCEL_ID, request.piece, (int) key);
+      }
+    }
+    flushRequests();
+    abandonPieces();
+    logger.info("Reassigned pieces {} away from {}", reassigned, peer);
+  }
+
+  private boolean isValidPiece(int pieceIndex) {
+    return pieceIndex >= 0 && pieceIndex < piecePicker.getNumPieces();
+  }
+
+  private static long blockKey(int pieceIndex, int begin) {
+    return ((long) pieceIndex << 32) | (begin & 0xFFFFFFFFL);
+  }
+
+  private static String peerAddress(SocketChannel channel)
+    throws IOException {
+    InetSocketAddress address = (InetSocketAddress) channel.getRemoteAddress();
+    return address.getAddress().getHostAddress() + ":" + address.getPort();
+  }
+
+  private void connect() throws Exception {
+    try {
+      if (inbound) {
+        openInbound();
+      } else {
+        openOutbound();
+      }
+      // Handshakes get the full read timeout, the session polls for snubs
+      socket.setSoTimeout(TorrentConstants.SNUB_CHECK_INTERVAL);
+      peerBytes = metrics.peerDownloadedBytes(torrent, peer);
+      choking = true;
+      peerInterested = false;
+      uploader.register(this);
+      awaitUnchoke();
+      lastMessageSentAt = System.currentTimeMillis();
+      logger.info("Opened peer session with {}", peer);
+    } catch (Exception e) {
+      close();
+      throw e;
+    }
+  }
+
+  private void openOutbound() throws Exception {
+    // Half-open slots cover the connect and handshake, not the whole session
+    share.acquireHalfOpen();
+    try {
+      // A channel underneath lets uploads go out with transferTo
+      channel = SocketChannel.open();
+      socket = channel.socket();
+      long connectStartedAt = System.nanoTime();
+      socket.connect(
+        new InetSocketAddress(host, port),
+        TorrentConstants.CONNECTION_TIMEOUT
+      );
+      long handshakeStartedAt = System.nanoTime();
+      metrics
+        .getConnectTimer()
+        .record(handshakeStartedAt - connectStartedAt, TimeUnit.NANOSECONDS);
+      openCodec();
+      fastExtension =
+        TorrentService.supportsFastExtension(
+          TorrentService.handshakeWithPeer(torrent, peer, codec)
+        );
+      metrics
+        .getHandshakeTimer()
+        .record(System.nanoTime() - handshakeStartedAt, TimeUnit.NANOSECONDS);
+    } finally {
+      share.releaseHalfOpen();
+    }
+  }
+
+  private void openInbound() throws IOException {
+    // We can't dial an inbound peer back, its port is ephemeral
+    if (acceptedChannel == null) {
+      throw new IOException("Inbound peer " + peer + " disconnected");
+    }
+    channel = acceptedChannel;
+    acceptedChannel = null;
+    socket = channel.socket();
+    openCodec();
+    // The listener already read the peer's side of the handshake
+    TorrentService.answerHandshake(torrent, codec);
+    fastExtension = TorrentService.supportsFastExtension(acceptedHandshake);
+  }
+
+  private void openCodec() throws IOException {
+    socket.setSoTimeout(TorrentConstants.READ_TIMEOUT);
+    writeLock.lock();
+    try {
+      codec =
+        new PeerWireCodec(socket.getInputStream(), socket.getOutputStream());
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void awaitUnchoke() throws Exception {
+    BitSet ourPieces = piecePicker.getCompletedPieces();
+    write(codec -> {
+      // Our pieces go first so the peer knows what it can ask us for
+      if (fastExtension && piecePicker.isComplete()) {
+        codec.writeMessage(TorrentConstants.HAVE_ALL_ID);
+      } else if (fastExtension && ourPieces.isEmpty()) {
+        codec.writeMessage(TorrentConstants.HAVE_NONE_ID);
+      } else if (!ourPieces.isEmpty()) {
+        codec.writeBitfield(
+          TorrentUtils.bitSetToBitfield(ourPieces, piecePicker.getNumPieces())
+        );
+      }
+      if (!piecePicker.isComplete()) {
+        codec.writeMessage(TorrentConstants.INTERESTED_ID);
+      }
+      codec.flush();
+    });
+    // HAVEs queued since the bitfield was taken may only follow it
+    writer =
+      Thread
+        .ofVirtual()
+        .name("peer-writer-" + peer)
+        .start(this::drainOutbound);
+    peerPieces.clear();
+    allowedFast.clear();
+    suggestedPieces.clear();
+    rejectedPieces.clear();
+    int messageId = readMessage();
+    boolean announcedPieces = true;
+    switch (messageId) {
+      case TorrentConstants.BITFIELD_ID -> peerPieces.or(
+        TorrentUtils.bitfieldToBitSet(
+          codec.copyPayload(),
+          piecePicker.getNumPieces()
+        )
+      );
+      case TorrentConstants.HAVE_ALL_ID -> peerPieces.set(
+        0,
+        piecePicker.getNumPieces()
+      );
+      case TorrentConstants.HAVE_NONE_ID -> {
+        // Nothing to add, the peer will send HAVEs as it gets pieces
+      }
+      default -> announcedPieces = false;
+    }
+    piecePicker.addPeer(peerPieces);
+    registeredWithPicker = true;
+    choked = true;
+    if (!announcedPieces) {
+      handleMessage(messageId, null);
+    }
+    // The peer may ask things of us before it lets us download, and a fast
+    // peer may let us start on its allowed pieces before it unchokes us
+    while (choked && !piecePicker.isComplete() && !canRequestWhileChoked()) {
+      handleMessage(readMessage(), null);
+    }
+  }
+
+  private void sendKeepAliveIfIdle() throws IOException {
+    long now = System.currentTimeMillis();
+    if (now - lastMessageSentAt < TorrentConstants.KEEP_ALIVE_INTERVAL) {
+      return;
+    }
+    try {
+      write(codec -> {
+        codec.writeKeepAlive();
+        codec.flush();
+      });
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  @Override
+  public void close() {
+    abandonPieces();
+    uploader.unregister(this);
+    if (registeredWithPicker) {
+      piecePicker.removePeer(peerPieces);
+      registeredWithPicker = false;
+    }
+    if (peerBytes != null) {
+      metrics.remove(List.of(peerBytes));
+      peerBytes = null;
+    }
+    if (writer != null) {
+      writer.interrupt();
+      writer = null;
+    }
+    outbound.clear();
+    if (socket == null) {
+      return;
+    }
+    closeSocket();
+    writeLock.lock();
+    try {
+      socket = null;
+      channel = null;
+      if (codec != null) {
+        codec.close();
+        codec = null;
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void closeSocket() {
+    Socket current = socket;
+    if (current == null) {
+      return;
+    }
+    try {
+      current.close();
+    } catch (IOException e) {
+      // Ignore close failures on a dead session
+    }
+  }
+}
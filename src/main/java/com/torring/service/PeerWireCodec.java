@@ -0,0 +1,236 @@
+package com.torring.service;
+
+import com.torring.util.TorrentConstants;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+public class PeerWireCodec implements Closeable {
+
+  private static final BufferPool readBuffers = new BufferPool(
+    TorrentConstants.WIRE_READ_BUFFER_SIZE,
+    TorrentConstants.MAX_POOLED_WIRE_BUFFERS
+  );
+  private static final BufferPool writeBuffers = new BufferPool(
+    TorrentConstants.WIRE_WRITE_BUFFER_SIZE,
+    TorrentConstants.MAX_POOLED_WIRE_BUFFERS
+  );
+
+  private final InputStream input;
+  private final OutputStream output;
+  // Holds unread bytes between position and limit
+  private ByteBuffer readBuffer;
+  private ByteBuffer writeBuffer;
+  private int payloadOffset;
+  private int payloadLength;
+
+  public PeerWireCodec(InputStream input, OutputStream output) {
+    this.input = input;
+    this.output = output;
+    this.readBuffer = readBuffers.acquire().flip();
+    this.writeBuffer = writeBuffers.acquire();
+  }
+
+  public int readMessage() throws IOException {
+    readBuffer.position(payloadOffset + payloadLength);
+    payloadOffset = readBuffer.position();
+    payloadLength = 0;
+    fill(TorrentConstants.MESSAGE_LENGTH_SIZE);
+    // Nothing is consumed until the whole message is buffered, so a read
+    // timeout can be retried
+    int length = readBuffer.getInt(readBuffer.position());
+    if (length == 0) {
+      readBuffer.position(
+        readBuffer.position() + TorrentConstants.MESSAGE_LENGTH_SIZE
+      );
+      payloadOffset = readBuffer.position();
+      return TorrentConstants.KEEP_ALIVE_ID;
+    }
+    if (length < 0 || length > TorrentConstants.MAX_MESSAGE_LENGTH) {
+      throw new IOException("Invalid message length: " + length);
+    }
+    fill(TorrentConstants.MESSAGE_LENGTH_SIZE + length);
+    readBuffer.position(
+      readBuffer.position() + TorrentConstants.MESSAGE_LENGTH_SIZE
+    );
+    int messageId = readBuffer.get();
+    payloadOffset = readBuffer.position();
+    payloadLength = length - TorrentConstants.MESSAGE_ID_SIZE;
+    checkPayloadLength(messageId, payloadLength);
+    return messageId;
+  }
+
+  public boolean hasInput() throws IOException {
+    // Anything buffered past the current payload, or waiting on the socket
+    return (
+      readBuffer.limit() > payloadOffset + payloadLength ||
+      input.available() > 0
+    );
+  }
+
+  public ByteBuffer getPayload() {
+    // A view straight into the read buffer, valid until the next read
+    return readBuffer;
+  }
+
+  public int getPayloadOffset() {
+    return payloadOffset;
+  }
+
+  public int getPayloadLength() {
+    return payloadLength;
+  }
+
+  public int getPayloadInt(int offset) {
+    return readBuffer.getInt(payloadOffset + offset);
+  }
+
+  public byte[] copyPayload() {
+    byte[] payload = new byte[payloadLength];
+    readBuffer.get(payloadOffset, payload);
+    return payload;
+  }
+
+  public void readFully(byte[] bytes) throws IOException {
+    fill(bytes.length);
+    readBuffer.get(bytes);
+    payloadOffset = readBuffer.position();
+  }
+
+  public void writeMessage(byte messageId) throws IOException {
+    ensureWritable(
+      TorrentConstants.MESSAGE_LENGTH_SIZE + TorrentConstants.MESSAGE_ID_SIZE
+    );
+    writeBuffer.putInt(TorrentConstants.MESSAGE_ID_SIZE).put(messageId);
+  }
+
+  public void writeIntMessage(byte messageId, int value) throws IOException {
+    ensureWritable(TorrentConstants.MESSAGE_LENGTH_SIZE + 5);
+    writeBuffer.putInt(5).put(messageId).putInt(value);
+  }
+
+  public void writeBitfield(byte[] bitfield) throws IOException {
+    ensureWritable(TorrentConstants.MESSAGE_LENGTH_SIZE + 1 + bitfield.length);
+    writeBuffer
+      .putInt(1 + bitfield.length)
+      .put(TorrentConstants.BITFIELD_ID)
+      .put(bitfield);
+  }
+
+  public void writeBlockMessage(
+    byte messageId,
+    int pieceIndex,
+    int begin,
+    int length
+  ) throws IOException {
+    ensureWritable(TorrentConstants.MESSAGE_LENGTH_SIZE + 13);
+    writeBuffer
+      .putInt(13)
+      .put(messageId)
+      .putInt(pieceIndex)
+      .putInt(begin)
+      .putInt(length);
+  }
+
+  public void writePieceHeader(int pieceIndex, int begin, int length)
+    throws IOException {
+    // The block itself follows straight from the file, see TorrentStorage
+    ensureWritable(TorrentConstants.MESSAGE_LENGTH_SIZE + 9);
+    writeBuffer
+      .putInt(9 + length)
+      .put(TorrentConstants.PIECE_ID)
+      .putInt(pieceIndex)
+      .putInt(begin);
+  }
+
+  public void writeKeepAlive() throws IOException {
+    ensureWritable(TorrentConstants.MESSAGE_LENGTH_SIZE);
+    writeBuffer.putInt(0);
+  }
+
+  public void writeRaw(byte[] bytes) throws IOException {
+    ensureWritable(bytes.length);
+    writeBuffer.put(bytes);
+  }
+
+  public void flush() throws IOException {
+    if (writeBuffer.position() > 0) {
+      output.write(writeBuffer.array(), 0, writeBuffer.position());
+      writeBuffer.clear();
+    }
+    output.flush();
+  }
+
+  @Override
+  public void close() {
+    readBuffers.release(readBuffer);
+    writeBuffers.release(writeBuffer);
+    readBuffer = null;
+    writeBuffer = null;
+  }
+
+  private static void checkPayloadLength(int messageId, int length)
+    throws IOException {
+    // A short payload would otherwise be read out of the next message
+    int expected = switch (messageId) {
+      case TorrentConstants.CHOKE_ID,
+        TorrentConstants.UNCHOKE_ID,
+        TorrentConstants.INTERESTED_ID,
+        TorrentConstants.NOT_INTERESTED_ID,
+        TorrentConstants.HAVE_ALL_ID,
+        TorrentConstants.HAVE_NONE_ID -> 0;
+      case TorrentConstants.HAVE_ID,
+        TorrentConstants.SUGGEST_PIECE_ID,
+        TorrentConstants.ALLOWED_FAST_ID -> 4;
+      case TorrentConstants.REQUEST_ID,
+        TorrentConstants.CANCEL_ID,
+        TorrentConstants.REJECT_REQUEST_ID -> 12;
+      default -> -1;
+    };
+    boolean valid = messageId == TorrentConstants.PIECE_ID
+      ? length >= 8
+      : expected < 0 || length == expected;
+    if (!valid) {
+      throw new IOException(
+        "Invalid payload length " + length + " for message " + messageId
+      );
+    }
+  }
+
+  private void ensureWritable(int length) throws IOException {
+    if (writeBuffer.remaining() < length) {
+      flush();
+    }
+  }
+
+  private void fill(int length) throws IOException {
+    if (readBuffer.remaining() >= length) {
+      return;
+    }
+    if (readBuffer.capacity() < length) {
+      // Only huge bitfields get here, give them a buffer of their own
+      readBuffer =
+        ByteBuffer
+          .allocate(length + TorrentConstants.MESSAGE_LENGTH_SIZE)
+          .put(readBuffer)
+          .flip();
+    } else {
+      readBuffer.compact().flip();
+    }
+    payloadOffset = 0;
+    payloadLength = 0;
+    // Read as much as the socket has ready, not just what we need
+    byte[] array = readBuffer.array();
+    while (readBuffer.remaining() < length) {
+      int limit = readBuffer.limit();
+      int read = input.read(array, limit, readBuffer.capacity() - limit);
+      if (read < 0) {
+        throw new EOFException("Peer closed the connection");
+      }
+      readBuffer.limit(limit + read);
+    }
+  }
+}
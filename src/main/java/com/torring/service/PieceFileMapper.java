@@ -0,0 +1,105 @@
+package com.torring.service;
+
+import com.torring.model.FileMetadata;
+import com.torring.model.FileSegment;
+import com.torring.model.Torrent;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PieceFileMapper {
+
+  private final Torrent torrent;
+  private final List<Path> filePaths = new ArrayList<>();
+  private final long[] fileOffsets;
+  private final long[] fileLengths;
+
+  public PieceFileMapper(Torrent torrent, Path downloadDir) {
+    this.torrent = torrent;
+    List<FileMetadata> files = torrent.getFiles();
+    if (files == null) {
+      filePaths.add(resolve(downloadDir, List.of(torrent.getName())));
+      fileOffsets = new long[] { 0 };
+      fileLengths = new long[] { torrent.getTotalLength() };
+      return;
+    }
+    Path torrentDir = resolve(downloadDir, List.of(torrent.getName()));
+    fileOffsets = new long[files.size()];
+    fileLengths = new long[files.size()];
+    long offset = 0;
+    for (int i = 0; i < files.size(); i++) {
+      FileMetadata file = files.get(i);
+      filePaths.add(resolve(torrentDir, file.getPath()));
+      fileOffsets[i] = offset;
+      fileLengths[i] = file.getLength();
+      offset += file.getLength();
+    }
+  }
+
+  public int getFileCount() {
+    return filePaths.size();
+  }
+
+  public Path getFilePath(int fileIndex) {
+    return filePaths.get(fileIndex);
+  }
+
+  public long getFileLength(int fileIndex) {
+    return fileLengths[fileIndex];
+  }
+
+  public List<FileSegment> mapPiece(int pieceIndex, int length) {
+    return mapRange((long) pieceIndex * torrent.getPieceLength(), length);
+  }
+
+  public List<FileSegment> mapRange(long offset, int length) {
+    List<FileSegment> segments = new ArrayList<>();
+    int fileIndex = Arrays.binarySearch(fileOffsets, offset);
+    if (fileIndex < 0) {
+      fileIndex = -fileIndex - 2;
+    } else {
+      // Several zero-length files can share an offset, start at the first one
+      while (fileIndex > 0 && fileOffsets[fileIndex - 1] == offset) {
+        fileIndex--;
+      }
+    }
+    long remaining = length;
+    while (remaining > 0 && fileIndex < fileOffsets.length) {
+      long fileOffset = offset - fileOffsets[fileIndex];
+      long available = fileLengths[fileIndex] - fileOffset;
+      if (available > 0) {
+        int segmentLength = (int) Math.min(available, remaining);
+        segments.add(new FileSegment(fileIndex, fileOffset, segmentLength));
+        offset += segmentLength;
+        remaining -= segmentLength;
+      }
+      fileIndex++;
+    }
+    if (remaining > 0) {
+      throw new IllegalArgumentException(
+        "Range ends past the end of the torrent: " + offset
+      );
+    }
+    return segments;
+  }
+
+  private static Path resolve(Path parent, List<String> pathComponents) {
+    Path path = parent;
+    for (String component : pathComponents) {
+      if (
+        component.isEmpty() ||
+        component.equals(".") ||
+        component.equals("..") ||
+        component.contains("/") ||
+        component.contains("\\")
+      ) {
+        throw new IllegalArgumentException(
+          "Invalid path in torrent: " + pathComponents
+        );
+      }
+      path = path.resolve(component);
+    }
+    return path;
+  }
+}
@@ -0,0 +1,288 @@
+package com.torring.service;
+
+import com.torring.model.Torrent;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class PiecePicker {
+
+  private final Torrent torrent;
+  private final int numPieces;
+  private final int[] availability;
+  // Pieces nobody is working on, ordered by (availability, index)
+  private final TreeSet<Long> wantedPieces = new TreeSet<>();
+  private final Map<Integer, PartialPiece> partialPieces =
+    new LinkedHashMap<>();
+  // Pieces handed out to sessions, shared between sessions in endgame
+  private final Map<Integer, PartialPiece> inProgressPieces =
+    new LinkedHashMap<>();
+  private final BitSet completedPieces;
+  private final TorrentShare share;
+  private final EndgameStats endgameStats = new EndgameStats();
+
+  public PiecePicker(Torrent torrent, int numPieces, TorrentShare share) {
+    this.torrent = torrent;
+    this.numPieces = numPieces;
+    this.availability = new int[numPieces];
+    this.completedPieces = new BitSet(numPieces);
+    this.share = share;
+    for (int i = 0; i < numPieces; i++) {
+      addWanted(i);
+    }
+  }
+
+  public int getNumPieces() {
+    return numPieces;
+  }
+
+  public synchronized BitSet getCompletedPieces() {
+    return (BitSet) completedPieces.clone();
+  }
+
+  public synchronized void markCompleted(BitSet pieces) {
+    for (
+      int i = pieces.nextSetBit(0);
+      i >= 0 && i < numPieces;
+      i = pieces.nextSetBit(i + 1)
+    ) {
+      wantedPieces.remove(pieceKey(availability[i], i));
+      completedPieces.set(i);
+    }
+  }
+
+  public synchronized int getCompletedCount() {
+    return completedPieces.cardinality();
+  }
+
+  public synchronized boolean isComplete() {
+    return completedPieces.cardinality() >= numPieces;
+  }
+
+  public synchronized boolean isCompleted(int pieceIndex) {
+    return completedPieces.get(pieceIndex);
+  }
+
+  public synchronized int getPendingCount() {
+    return wantedPieces.size() + partialPieces.size();
+  }
+
+  public synchronized int getInProgressCount() {
+    return inProgressPieces.size();
+  }
+
+  public EndgameStats getEndgameStats() {
+    return endgameStats;
+  }
+
+  public synchronized boolean isEndgame() {
+    // Every remaining block has been requested from somebody
+    return (
+      wantedPieces.isEmpty() &&
+      partialPieces.isEmpty() &&
+      !inProgressPieces.isEmpty()
+    );
+  }
+
+  public synchronized void addPeer(BitSet peerPieces) {
+    for (
+      int i = peerPieces.nextSetBit(0);
+      i >= 0 && i < numPieces;
+      i = peerPieces.nextSetBit(i + 1)
+    ) {
+      updateAvailability(i, 1);
+    }
+  }
+
+  public synchronized void removePeer(BitSet peerPieces) {
+    for (
+      int i = peerPieces.nextSetBit(0);
+      i >= 0 && i < numPieces;
+      i = peerPieces.nextSetBit(i + 1)
+    ) {
+      updateAvailability(i, -1);
+    }
+  }
+
+  public synchronized void peerHas(int pieceIndex) {
+    if (pieceIndex >= 0 && pieceIndex < numPieces) {
+      updateAvailability(pieceIndex, 1);
+    }
+  }
+
+  public PartialPiece pick(
+    BitSet peerPieces,
+    boolean mayWait,
+    boolean favoured
+  ) throws InterruptedException {
+    int rarest;
+    synchronized (this) {
+      // Half-done pieces go to the best peers so they finish soon, the rest
+      // only get them once nothing fresh is left
+      PartialPiece partial = favoured ? pickPartial(peerPieces) : null;
+      rarest = partial == null ? pickRarest(peerPieces) : -1;
+      if (partial == null && rarest < 0 && !favoured) {
+        partial = pickPartial(peerPieces);
+      }
+      if (partial != null) {
+        inProgressPieces.put(partial.getIndex(), partial);
+        return partial;
+      }
+      if (rarest < 0) {
+        return null;
+      }
+    }
+    int pieceLength = torrent.getPieceLength();
+    if (mayWait) {
+      share.acquireMemory(pieceLength);
+    } else if (!share.tryAcquireMemory(pieceLength)) {
+      return null;
+    }
+    synchronized (this) {
+      // Another session may have taken the piece while we waited for
+      // memory. If not it is still close enough to the rarest.
+      int pieceIndex = rarest;
+      if (!wantedPieces.contains(pieceKey(availability[rarest], rarest))) {
+        pieceIndex = pickRarest(peerPieces);
+      }
+      if (pieceIndex < 0) {
+        share.releaseMemory(pieceLength);
+        return null;
+      }
+      wantedPieces.remove(pieceKey(availability[pieceIndex], pieceIndex));
+      PartialPiece piece = new PartialPiece(
+        pieceIndex,
+        (int) TorrentService.getPieceLength(torrent, pieceIndex)
+      );
+      inProgressPieces.put(pieceIndex, piece);
+      return piece;
+    }
+  }
+
+  public synchronized PartialPiece pickEndgame(
+    BitSet peerPieces,
+    Set<Integer> activePieces
+  ) {
+    if (!isEndgame()) {
+      return null;
+    }
+    endgameStats.start();
+    for (PartialPiece piece : inProgressPieces.values()) {
+      if (
+        peerPieces.get(piece.getIndex()) &&
+        !activePieces.contains(piece.getIndex()) &&
+        !piece.isDone()
+      ) {
+        return piece;
+      }
+    }
+    return null;
+  }
+
+  public synchronized void release(PartialPiece piece) {
+    if (
+      completedPieces.get(piece.getIndex()) ||
+      piece.isDone() ||
+      !piece.getRequesters().isEmpty()
+    ) {
+      // Finished already, or other endgame sessions are still on it
+      return;
+    }
+    inProgressPieces.remove(piece.getIndex());
+    if (piece.hasReceivedBlocks()) {
+      piece.resetRequests();
+      partialPieces.put(piece.getIndex(), piece);
+    } else {
+      addWanted(piece.getIndex());
+      share.releaseMemory(torrent.getPieceLength());
+    }
+  }
+
+  public synchronized void pieceVerified(PartialPiece piece) {
+    inProgressPieces.remove(piece.getIndex());
+    completedPieces.set(piece.getIndex());
+    share.releaseMemory(torrent.getPieceLength());
+    if (isComplete()) {
+      endgameStats.finish();
+    }
+  }
+
+  public synchronized void pieceFailed(PartialPiece piece) {
+    inProgressPieces.remove(piece.getIndex());
+    addWanted(piece.getIndex());
+    share.releaseMemory(torrent.getPieceLength());
+  }
+
+  public synchronized void discardPartialPieces() {
+    // A paused torrent shouldn't sit on memory other torrents could use
+    for (PartialPiece piece : partialPieces.values()) {
+      addWanted(piece.getIndex());
+      share.releaseMemory(torrent.getPieceLength());
+    }
+    partialPieces.clear();
+  }
+
+  private PartialPiece pickPartial(BitSet peerPieces) {
+    Iterator<PartialPiece> iterator = partialPieces.values().iterator();
+    while (iterator.hasNext()) {
+      PartialPiece piece = iterator.next();
+      if (peerPieces.get(piece.getIndex())) {
+        iterator.remove();
+        return piece;
+      }
+    }
+    return null;
+  }
+
+  // O(log n) to reach the rarest wanted piece, then one step for each rarer
+  // wanted piece the peer lacks. That walk is O(n) at worst, so peers with
+  // few pieces are scanned the other way round in O(p log n) for p pieces.
+  private int pickRarest(BitSet peerPieces) {
+    if (wantedPieces.isEmpty()) {
+      return -1;
+    }
+    int peerPieceCount = peerPieces.cardinality();
+    if (peerPieceCount < wantedPieces.size() / 8) {
+      // Sparse peers are cheaper to scan through their own pieces
+      long best = Long.MAX_VALUE;
+      for (
+        int i = peerPieces.nextSetBit(0);
+        i >= 0 && i < numPieces;
+        i = peerPieces.nextSetBit(i + 1)
+      ) {
+        long key = pieceKey(availability[i], i);
+        if (key < best && wantedPieces.contains(key)) {
+          best = key;
+        }
+      }
+      return best == Long.MAX_VALUE ? -1 : (int) best;
+    }
+    for (long key : wantedPieces) {
+      if (peerPieces.get((int) key)) {
+        return (int) key;
+      }
+    }
+    return -1;
+  }
+
+  private void updateAvailability(int pieceIndex, int delta) {
+    boolean wanted = wantedPieces.remove(
+      pieceKey(availability[pieceIndex], pieceIndex)
+    );
+    availability[pieceIndex] = Math.max(0, availability[pieceIndex] + delta);
+    if (wanted) {
+      wantedPieces.add(pieceKey(availability[pieceIndex], pieceIndex));
+    }
+  }
+
+  private void addWanted(int pieceIndex) {
+    wantedPieces.add(pieceKey(availability[pieceIndex], pieceIndex));
+  }
+
+  private static long pieceKey(int availability, int pieceIndex) {
+    return ((long) availability << 32) | pieceIndex;
+  }
+}
@@ -0,0 +1,177 @@
+package com.torring.service;
+
+import com.torring.model.Torrent;
+import com.torring.util.TorrentUtils;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+public class PieceRechecker {
+
+  private final Torrent torrent;
+  private final TorrentStorage storage;
+  private final int numPieces;
+  private final int piecesPerRead;
+  private final BufferPool readBuffers;
+  private final AtomicInteger checkedCount = new AtomicInteger(0);
+  private final AtomicInteger verifiedCount = new AtomicInteger(0);
+  private volatile long startedAt;
+  private volatile long finishedAt;
+  private volatile boolean cancelled;
+
+  public PieceRechecker(
+    Torrent torrent,
+    TorrentStorage storage,
+    int numPieces,
+    BufferPool readBuffers
+  ) {
+    this.torrent = torrent;
+    this.storage = storage;
+    this.numPieces = numPieces;
+    this.readBuffers = readBuffers;
+    this.piecesPerRead =
+      Math.max(1, readBuffers.getBufferSize() / torrent.getPieceLength());
+  }
+
+  public BitSet recheck(ForkJoinPool pool, IntConsumer onProgress) {
+    startedAt = System.nanoTime();
+    try {
+      return pool.invoke(new RecheckTask(0, numPieces, onProgress));
+    } finally {
+      finishedAt = System.nanoTime();
+    }
+  }
+
+  // Batches not yet read are skipped and come back unverified
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public int getNumPieces() {
+    return numPieces;
+  }
+
+  public int getCheckedCount() {
+    return checkedCount.get();
+  }
+
+  public int getVerifiedCount() {
+    return verifiedCount.get();
+  }
+
+  public long getElapsedMillis() {
+    if (startedAt == 0) {
+      return 0;
+    }
+    long end = finishedAt != 0 ? finishedAt : System.nanoTime();
+    return TimeUnit.NANOSECONDS.toMillis(end - startedAt);
+  }
+
+  public double getPiecesPerSecond() {
+    long elapsed = getElapsedMillis();
+    return elapsed == 0 ? 0 : checkedCount.get() * 1000.0 / elapsed;
+  }
+
+  private class RecheckTask extends RecursiveTask<BitSet> {
+
+    private final int from;
+    private final int to;
+    private final IntConsumer onProgress;
+
+    private RecheckTask(int from, int to, IntConsumer onProgress) {
+      this.from = from;
+      this.to = to;
+      this.onProgress = onProgress;
+    }
+
+    @Override
+    protected BitSet compute() {
+      if (to - from <= piecesPerRead) {
+        return checkRange(from, to, onProgress);
+      }
+      // Split on read-ahead boundaries so every leaf is one sequential read
+      int batches = (to - from + piecesPerRead - 1) / piecesPerRead;
+      int middle = from + (batches / 2) * piecesPerRead;
+      RecheckTask left = new RecheckTask(from, middle, onProgress);
+      left.fork();
+      BitSet verified = new RecheckTask(middle, to, onProgress).compute();
+      verified.or(left.join());
+      return verified;
+    }
+  }
+
+  private BitSet checkRange(int from, int to, IntConsumer onProgress) {
+    BitSet verified = new BitSet(numPieces);
+    if (cancelled) {
+      return verified;
+    }
+    long pieceLength = torrent.getPieceLength();
+    long start = from * pieceLength;
+    long end = Math.min(to * pieceLength, torrent.getTotalLength());
+    ByteBuffer buffer = acquireBuffer((int) (end - start));
+    try {
+      storage.read(start, buffer);
+    } catch (IOException e) {
+      readBuffers.release(buffer);
+      // A missing or short file fails the batch, salvage what we can per piece
+      if (to - from > 1) {
+        for (int i = from; i < to; i++) {
+          verified.or(checkRange(i, i + 1, onProgress));
+        }
+        return verified;
+      }
+      checked(onProgress);
+      return verified;
+    }
+    try {
+      buffer.flip();
+      MessageDigest digest = TorrentUtils.sha1();
+      byte[] expectedHashes = torrent.getPieces();
+      for (int i = from; i < to; i++) {
+        int length = (int) Math.min(pieceLength, buffer.remaining());
+        digest.update(buffer.slice(buffer.position(), length));
+        buffer.position(buffer.position() + length);
+        byte[] actualHash = digest.digest();
+        if (
+          Arrays.equals(
+            actualHash,
+            0,
+            20,
+            expectedHashes,
+            i * 20,
+            (i + 1) * 20
+          )
+        ) {
+          verified.set(i);
+          verifiedCount.incrementAndGet();
+        }
+        checked(onProgress);
+      }
+      return verified;
+    } finally {
+      readBuffers.release(buffer);
+    }
+  }
+
+  private ByteBuffer acquireBuffer(int length) {
+    // Only a piece larger than the read-ahead outgrows the pooled buffers
+    if (length > readBuffers.getBufferSize()) {
+      return ByteBuffer.allocate(length);
+    }
+    return readBuffers.acquire().limit(length);
+  }
+
+  private void checked(IntConsumer onProgress) {
+    int checked = checkedCount.incrementAndGet();
+    if (onProgress != null) {
+      onProgress.accept(checked);
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package com.torring.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.torring.model.ProgressUpdate;
+import com.torring.model.Torrent;
+import com.torring.util.TorrentConstants;
+import com.torring.util.TorrentWebSocketHandler;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.BitSet;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ProgressBroadcaster {
+
+  private static final Logger logger = LoggerFactory.getLogger(
+    ProgressBroadcaster.class
+  );
+
+  @Autowired
+  private TorrentWebSocketHandler torrentWebSocketHandler;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  // Peer threads only ever enqueue, the tick thread does everything else
+  private final Queue<PieceEvent> events = new ConcurrentLinkedQueue<>();
+  private final Map<TorrentDownload, TorrentProgress> progress =
+    new HashMap<>();
+  private ScheduledExecutorService ticker;
+
+  private static class PieceEvent {
+
+    private final TorrentDownload download;
+    private final int pieceIndex;
+
+    private PieceEvent(TorrentDownload download, int pieceIndex) {
+      this.download = download;
+      this.pieceIndex = pieceIndex;
+    }
+  }
+
+  private static class TorrentProgress {
+
+    private final BitSet delta = new BitSet();
+    private long bytesSinceTick;
+    private double bytesPerSecond;
+    private long lastTickAt;
+
+    private TorrentProgress(long now) {
+      this.lastTickAt = now;
+    }
+  }
+
+  @PostConstruct
+  public void start() {
+    ticker = Executors.newSingleThreadScheduledExecutor();
+    ticker.scheduleAtFixedRate(
+      this::tick,
+      TorrentConstants.PROGRESS_TICK_MILLIS,
+      TorrentConstants.PROGRESS_TICK_MILLIS,
+      TimeUnit.MILLISECONDS
+    );
+  }
+
+  @PreDestroy
+  public void stop() {
+    ticker.shutdownNow();
+  }
+
+  public void pieceCompleted(TorrentDownload download, int pieceIndex) {
+    events.offer(new PieceEvent(download, pieceIndex));
+  }
+
+  private void tick() {
+    try {
+      long now = System.nanoTime();
+      PieceEvent event;
+      while ((event = events.poll()) != null) {
+        TorrentProgress torrentProgress = progress.computeIfAbsent(
+          event.download,
+          download -> new TorrentProgress(now)
+        );
+        torrentProgress.delta.set(event.pieceIndex);
+        torrentProgress.bytesSinceTick +=
+          TorrentService.getPieceLength(
+            event.download.getTorrent(),
+            event.pieceIndex
+          );
+      }
+      Iterator<Map.Entry<TorrentDownload, TorrentProgress>> iterator =
+        progress.entrySet().iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<TorrentDownload, TorrentProgress> entry = iterator.next();
+        TorrentDownload download = entry.getKey();
+        TorrentProgress torrentProgress = entry.getValue();
+        updateRate(torrentProgress, now);
+        if (!torrentProgress.delta.isEmpty()) {
+          broadcast(download, torrentProgress);
+          torrentProgress.delta.clear();
+        } else if (download.getCompletion().isDone()) {
+          iterator.remove();
+        }
+      }
+    } catch (RuntimeException e) {
+      // An exception would cancel the schedule and silence every update
+      logger.warn("Failed to broadcast progress: {}", e.toString());
+    }
+  }
+
+  private static void updateRate(TorrentProgress torrentProgress, long now) {
+    double elapsed = (now - torrentProgress.lastTickAt) / 1e9;
+    if (elapsed <= 0) {
+      return;
+    }
+    double current = torrentProgress.bytesSinceTick / elapsed;
+    double weight =
+      1 -
+      Math.exp(
+        -elapsed * 1000 / TorrentConstants.PROGRESS_RATE_WINDOW_MILLIS
+      );
+    torrentProgress.bytesPerSecond +=
+      weight * (current - torrentProgress.bytesPerSecond);
+    torrentProgress.bytesSinceTick = 0;
+    torrentProgress.lastTickAt = now;
+  }
+
+  private void broadcast(
+    TorrentDownload download,
+    TorrentProgress torrentProgress
+  ) {
+    Torrent torrent = download.getTorrent();
+    int completed = download.getCompletedCount();
+    long remaining = Math.max(
+      0,
+      torrent.getTotalLength() - (long) completed * torrent.getPieceLength()
+    );
+    long bytesPerSecond = Math.round(torrentProgress.bytesPerSecond);
+    Long etaSeconds = null;
+    if (remaining == 0) {
+      etaSeconds = 0L;
+    } else if (bytesPerSecond > 0) {
+      etaSeconds = (remaining + bytesPerSecond - 1) / bytesPerSecond;
+    }
+    BitSet delta = torrentProgress.delta;
+    int deltaOffset = delta.nextSetBit(0) & ~7;
+    byte[] deltaBits = new byte[(delta.length() - deltaOffset + 7) / 8];
+    for (int i = delta.nextSetBit(0); i >= 0; i = delta.nextSetBit(i + 1)) {
+      int bit = i - deltaOffset;
+      deltaBits[bit >> 3] |= (byte) (0x80 >> (bit & 7));
+    }
+    ProgressUpdate update = new ProgressUpdate(
+      torrent.getInfoHashHex(),
+      torrent.getName(),
+      completed,
+      download.getNumPieces(),
+      bytesPerSecond,
+      etaSeconds,
+      deltaOffset,
+      Base64.getEncoder().encodeToString(deltaBits)
+    );
+    try {
+      torrentWebSocketHandler.sendMessageToAll(
+        objectMapper.writeValueAsString(update)
+      );
+    } catch (JsonProcessingException e) {
+      logger.warn("Failed to serialize progress: {}", e.getMessage());
+    }
+  }
+}
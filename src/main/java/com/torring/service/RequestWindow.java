@@ -0,0 +1,163 @@
+package com.torring.service;
+
+import com.torring.util.TorrentConstants;
+import io.micrometer.core.instrument.DistributionSummary;
+import java.util.concurrent.TimeUnit;
+
+// How many block requests to keep outstanding on one peer. The window is
+// sized from the bandwidth-delay product: the best recent delivery rate times
+// the smallest recent RTT, doubled so the peer always has the next block
+// queued. Only the session's own thread touches it.
+public class RequestWindow {
+
+  private static final long MIN_RTT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(
+    10
+  );
+  private static final long MIN_ROUND_NANOS = TimeUnit.MILLISECONDS.toNanos(
+    50
+  );
+  private static final long PROBE_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+  private static final double STARTUP_GROWTH = 1.25;
+  private static final int STARTUP_FLAT_ROUNDS = 3;
+  private static final double BDP_GAIN = 2.0;
+  private static final double RATE_DECAY = 0.9;
+  private static final long QUEUE_SLACK_NANOS = TimeUnit.MILLISECONDS.toNanos(
+    20
+  );
+  private static final long MAX_QUEUE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final int maxSize;
+  // A configured maximum below the usual floor wins over it
+  private final int minSize;
+  private final DistributionSummary sizes;
+  private int size;
+  private boolean startup = true;
+  private int flatRounds;
+  private long minRttNanos = Long.MAX_VALUE;
+  private long minRttAt;
+  private long probeStartedAt;
+  private long probeDrainedAt;
+  private long probeMinRttNanos;
+  private long roundStartedAt;
+  private long roundBytes;
+  // Bytes per second
+  private double bestRate;
+
+  public RequestWindow(int maxSize, DistributionSummary sizes) {
+    this.maxSize = maxSize;
+    this.minSize = Math.min(maxSize, TorrentConstants.MIN_REQUEST_WINDOW);
+    this.sizes = sizes;
+    this.size =
+      Math.min(maxSize, TorrentConstants.INITIAL_REQUEST_WINDOW);
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  public long getMinRttNanos() {
+    return minRttNanos;
+  }
+
+  public double getRate() {
+    return bestRate;
+  }
+
+  public void blockReceived(
+    int bytes,
+    long rttNanos,
+    int outstanding,
+    long now
+  ) {
+    if (probeStartedAt != 0) {
+      probe(rttNanos, outstanding, now);
+      return;
+    }
+    if (rttNanos < minRttNanos) {
+      minRttNanos = rttNanos;
+      minRttAt = now;
+    } else if (now - minRttAt > MIN_RTT_WINDOW_NANOS) {
+      // A stale minimum would hide a route that got slower for good
+      startProbe(now);
+      return;
+    }
+    if (roundStartedAt == 0) {
+      roundStartedAt = now - rttNanos;
+    }
+    roundBytes += bytes;
+    long elapsed = now - roundStartedAt;
+    if (elapsed < Math.max(minRttNanos, MIN_ROUND_NANOS)) {
+      return;
+    }
+    double rate = roundBytes * 1e9 / elapsed;
+    roundStartedAt = now;
+    roundBytes = 0;
+    if (startup) {
+      // Double each round while that still buys more throughput
+      if (rate > bestRate * STARTUP_GROWTH) {
+        bestRate = rate;
+        flatRounds = 0;
+        resize(Math.min(size * 2, blocksFor(rate, MAX_QUEUE_NANOS)));
+        return;
+      }
+      if (++flatRounds < STARTUP_FLAT_ROUNDS) {
+        return;
+      }
+      // Startup leaves a queue behind that the RTT so far has counted
+      startup = false;
+      startProbe(now);
+      return;
+    }
+    // Decaying max, so a peer that slows down loses its window in a few rounds
+    bestRate = Math.max(rate, bestRate * RATE_DECAY);
+    resizeToBdp();
+  }
+
+  private void startProbe(long now) {
+    // Shrink until our queue at the peer drains, so the RTT shows the path
+    probeStartedAt = now;
+    probeDrainedAt = 0;
+    probeMinRttNanos = Long.MAX_VALUE;
+    size = minSize;
+  }
+
+  private void probe(long rttNanos, int outstanding, long now) {
+    if (outstanding > minSize) {
+      return;
+    }
+    // The first block after draining was still queued behind the old window
+    if (probeDrainedAt == 0) {
+      probeDrainedAt = now;
+      return;
+    }
+    probeMinRttNanos = Math.min(probeMinRttNanos, rttNanos);
+    if (now - probeDrainedAt < Math.max(PROBE_NANOS, probeMinRttNanos)) {
+      return;
+    }
+    minRttNanos = probeMinRttNanos;
+    minRttAt = now;
+    probeStartedAt = 0;
+    roundStartedAt = now;
+    roundBytes = 0;
+    resizeToBdp();
+  }
+
+  private void resizeToBdp() {
+    // The slack covers the peer's disk and scheduling hiccups, which the
+    // minimum RTT never sees. A second of data is plenty for any link.
+    double queueNanos = Math.min(
+      BDP_GAIN * minRttNanos + QUEUE_SLACK_NANOS,
+      MAX_QUEUE_NANOS
+    );
+    resize(blocksFor(bestRate, queueNanos));
+  }
+
+  private void resize(int wanted) {
+    size = Math.max(minSize, Math.min(maxSize, wanted));
+    sizes.record(size);
+  }
+
+  private static int blocksFor(double rate, double nanos) {
+    return (int) Math.ceil(rate * nanos / 1e9 / TorrentConstants.BLOCK_SIZE);
+  }
+}
@@ -0,0 +1,154 @@
+package com.torring.service;
+
+import com.torring.model.Torrent;
+import com.torring.util.TorrentUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ResumeData {
+
+  private static final Logger logger = LoggerFactory.getLogger(
+    ResumeData.class
+  );
+
+  private static final int MAGIC = 0x5452534d; // "TRSM"
+  private static final int VERSION = 1;
+
+  private final Torrent torrent;
+  private final PieceFileMapper mapper;
+  private final int numPieces;
+  private final Path resumeFile;
+
+  public ResumeData(
+    Torrent torrent,
+    PieceFileMapper mapper,
+    int numPieces,
+    Path resumeDir
+  ) {
+    this.torrent = torrent;
+    this.mapper = mapper;
+    this.numPieces = numPieces;
+    this.resumeFile = resumeDir.resolve(torrent.getInfoHashHex() + ".resume");
+  }
+
+  public BitSet load() {
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(resumeFile);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      logger.warn("Could not read resume data {}: {}", resumeFile, e);
+      return null;
+    }
+    try (
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))
+    ) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return null;
+      }
+      byte[] infoHash = new byte[20];
+      in.readFully(infoHash);
+      if (
+        !Arrays.equals(infoHash, torrent.getInfoHash()) ||
+        in.readInt() != numPieces
+      ) {
+        return null;
+      }
+      byte[] bitfield = new byte[(numPieces + 7) / 8];
+      in.readFully(bitfield);
+      if (in.readInt() != mapper.getFileCount()) {
+        return null;
+      }
+      for (int i = 0; i < mapper.getFileCount(); i++) {
+        long size = in.readLong();
+        long modifiedAt = in.readLong();
+        if (size != fileSize(i) || modifiedAt != fileModifiedAt(i)) {
+          // Touched since the checkpoint, only a recheck can tell what's valid
+          logger.info(
+            "Resume data for {} is stale at {}",
+            torrent.getName(),
+            mapper.getFilePath(i)
+          );
+          return null;
+        }
+      }
+      return TorrentUtils.bitfieldToBitSet(bitfield, numPieces);
+    } catch (IOException e) {
+      logger.warn("Corrupt resume data {}: {}", resumeFile, e);
+      return null;
+    }
+  }
+
+  public void save(BitSet completedPieces) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.write(torrent.getInfoHash());
+      out.writeInt(numPieces);
+      out.write(TorrentUtils.bitSetToBitfield(completedPieces, numPieces));
+      out.writeInt(mapper.getFileCount());
+      for (int i = 0; i < mapper.getFileCount(); i++) {
+        out.writeLong(fileSize(i));
+        out.writeLong(fileModifiedAt(i));
+      }
+    }
+    Files.createDirectories(resumeFile.getParent());
+    Path tempFile = resumeFile.resolveSibling(
+      resumeFile.getFileName() + ".tmp"
+    );
+    try (
+      FileChannel channel = FileChannel.open(
+        tempFile,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE
+      )
+    ) {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(true);
+    }
+    // Readers only ever see the old checkpoint or the new one, never half
+    try {
+      Files.move(
+        tempFile,
+        resumeFile,
+        StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING
+      );
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tempFile, resumeFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private long fileSize(int fileIndex) throws IOException {
+    Path path = mapper.getFilePath(fileIndex);
+    return Files.exists(path) ? Files.size(path) : -1;
+  }
+
+  private long fileModifiedAt(int fileIndex) throws IOException {
+    Path path = mapper.getFilePath(fileIndex);
+    return Files.exists(path)
+      ? Files.getLastModifiedTime(path).toMillis()
+      : 0;
+  }
+}
@@ -0,0 +1,296 @@
+package com.torring.service;
+
+import com.torring.model.Torrent;
+import com.torring.model.TorrentPriority;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class SessionManager {
+
+  private final TorrentMetrics metrics;
+  private final int maxConnections;
+  private final int maxHalfOpenConnections;
+  private final long maxInFlightBytes;
+  private final long maxDownloadRate;
+  private final Semaphore halfOpenConnections;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition released = lock.newCondition();
+  private final Set<TorrentShare> activeShares = new HashSet<>();
+  private volatile int totalWeight;
+  private int totalConnections;
+  private long totalInFlightBytes;
+  private int connectionWaiters;
+  private int memoryWaiters;
+
+  public SessionManager(
+    TorrentMetrics metrics,
+    int maxConnections,
+    int maxHalfOpenConnections,
+    long maxInFlightBytes,
+    long maxDownloadRate
+  ) {
+    this.metrics = metrics;
+    this.maxConnections = maxConnections;
+    this.maxInFlightBytes = maxInFlightBytes;
+    this.maxDownloadRate = maxDownloadRate;
+    this.maxHalfOpenConnections = maxHalfOpenConnections;
+    this.halfOpenConnections = new Semaphore(maxHalfOpenConnections, true);
+  }
+
+  // Kept out of the constructor so the gauges never see a half built manager
+  public void registerGauges() {
+    MeterRegistry registry = metrics.getRegistry();
+    registry.gauge(
+      "torrent.session.connections",
+      this,
+      SessionManager::getTotalConnections
+    );
+    registry.gauge(
+      "torrent.session.half.open.connections",
+      halfOpenConnections,
+      semaphore -> maxHalfOpenConnections - semaphore.availablePermits()
+    );
+    registry.gauge(
+      "torrent.session.in.flight.bytes",
+      this,
+      SessionManager::getTotalInFlightBytes
+    );
+    registry.gauge(
+      "torrent.session.active.torrents",
+      this,
+      SessionManager::getActiveTorrents
+    );
+  }
+
+  public TorrentMetrics getMetrics() {
+    return metrics;
+  }
+
+  public TorrentShare register(Torrent torrent, TorrentPriority priority) {
+    return new TorrentShare(this, torrent.getPieceLength(), priority);
+  }
+
+  public int getActiveTorrents() {
+    lock.lock();
+    try {
+      return activeShares.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getTotalConnections() {
+    lock.lock();
+    try {
+      return totalConnections;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getTotalInFlightBytes() {
+    lock.lock();
+    try {
+      return totalInFlightBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void activate(TorrentShare share) {
+    lock.lock();
+    try {
+      if (activeShares.add(share)) {
+        totalWeight += share.getPriority().getWeight();
+        released.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void deactivate(TorrentShare share) {
+    lock.lock();
+    try {
+      if (activeShares.remove(share)) {
+        totalWeight -= share.getPriority().getWeight();
+        released.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void changePriority(TorrentShare share, TorrentPriority priority) {
+    lock.lock();
+    try {
+      if (activeShares.contains(share)) {
+        totalWeight +=
+          priority.getWeight() - share.getPriority().getWeight();
+      }
+      share.priority = priority;
+      released.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void acquireConnection(TorrentShare share) throws InterruptedException {
+    lock.lock();
+    try {
+      connectionWaiters++;
+      share.connectionWaiters++;
+      try {
+        while (
+          totalConnections >= maxConnections ||
+          !withinShare(
+            share,
+            share.connections + 1,
+            maxConnections,
+            1,
+            connectionWaiters - share.connectionWaiters
+          )
+        ) {
+          released.await();
+        }
+      } finally {
+        connectionWaiters--;
+        share.connectionWaiters--;
+      }
+      share.connections++;
+      totalConnections++;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  boolean tryAcquireConnection(TorrentShare share) {
+    // Inbound peers never wait, a full session just turns them away
+    lock.lock();
+    try {
+      if (totalConnections >= maxConnections) {
+        return false;
+      }
+      share.connections++;
+      totalConnections++;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void releaseConnection(TorrentShare share) {
+    lock.lock();
+    try {
+      share.connections--;
+      totalConnections--;
+      released.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void acquireHalfOpen() throws InterruptedException {
+    halfOpenConnections.acquire();
+  }
+
+  void releaseHalfOpen() {
+    halfOpenConnections.release();
+  }
+
+  void acquireMemory(TorrentShare share, long bytes)
+    throws InterruptedException {
+    lock.lock();
+    try {
+      memoryWaiters++;
+      share.memoryWaiters++;
+      try {
+        while (!memoryAvailable(share, bytes)) {
+          released.await();
+        }
+      } finally {
+        memoryWaiters--;
+        share.memoryWaiters--;
+      }
+      share.inFlightBytes += bytes;
+      totalInFlightBytes += bytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  boolean tryAcquireMemory(TorrentShare share, long bytes) {
+    lock.lock();
+    try {
+      if (!memoryAvailable(share, bytes)) {
+        return false;
+      }
+      share.inFlightBytes += bytes;
+      totalInFlightBytes += bytes;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void releaseMemory(TorrentShare share, long bytes) {
+    lock.lock();
+    try {
+      share.inFlightBytes -= bytes;
+      totalInFlightBytes -= bytes;
+      released.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  long downloadRateFor(TorrentShare share) {
+    int weight = totalWeight;
+    if (maxDownloadRate <= 0 || weight == 0) {
+      return 0;
+    }
+    return Math.max(
+      1,
+      maxDownloadRate * share.getPriority().getWeight() / weight
+    );
+  }
+
+  private boolean memoryAvailable(TorrentShare share, long bytes) {
+    // A torrent holding nothing may always take one piece, or it could stall
+    if (share.inFlightBytes == 0) {
+      return true;
+    }
+    return (
+      totalInFlightBytes + bytes <= maxInFlightBytes &&
+      withinShare(
+        share,
+        share.inFlightBytes + bytes,
+        maxInFlightBytes,
+        share.getPieceLength(),
+        memoryWaiters - share.memoryWaiters
+      )
+    );
+  }
+
+  private boolean withinShare(
+    TorrentShare share,
+    long wanted,
+    long capacity,
+    long minimum,
+    int otherWaiters
+  ) {
+    // Borrowing past the fair share is fine until another torrent queues up
+    if (otherWaiters <= 0) {
+      return true;
+    }
+    long fairShare = Math.max(
+      minimum,
+      capacity * share.getPriority().getWeight() / Math.max(1, totalWeight)
+    );
+    return wanted <= fairShare;
+  }
+}
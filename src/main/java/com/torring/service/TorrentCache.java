@@ -0,0 +1,116 @@
+package com.torring.service;
+
+import com.torring.model.FileMetadata;
+import com.torring.model.Torrent;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TorrentCache {
+
+  // Rough cost of everything besides the piece hashes
+  private static final int BASE_WEIGHT = 1024;
+  private static final int FILE_WEIGHT = 128;
+
+  private final long maxWeight;
+  private final LinkedHashMap<String, Entry> torrents = new LinkedHashMap<>(
+    16,
+    0.75f,
+    true
+  );
+  private final Map<String, String> aliases = new HashMap<>();
+  private long weight;
+
+  private static class Entry {
+
+    private final Torrent torrent;
+    private final long weight;
+    private final List<String> uploadDigests = new ArrayList<>();
+
+    private Entry(Torrent torrent) {
+      this.torrent = torrent;
+      this.weight = weigh(torrent);
+    }
+  }
+
+  public TorrentCache(long maxWeight) {
+    this.maxWeight = maxWeight;
+  }
+
+  public synchronized Torrent get(String infoHashHex) {
+    Entry entry = torrents.get(infoHashHex);
+    return entry != null ? entry.torrent : null;
+  }
+
+  public synchronized Torrent getByUploadDigest(String uploadDigest) {
+    String infoHashHex = aliases.get(uploadDigest);
+    return infoHashHex != null ? get(infoHashHex) : null;
+  }
+
+  public synchronized void put(String uploadDigest, Torrent torrent) {
+    Entry entry = torrents.get(torrent.getInfoHashHex());
+    if (entry == null || entry.torrent != torrent) {
+      // A re-upload with other trackers replaces the old metadata outright
+      if (entry != null) {
+        remove(torrent.getInfoHashHex());
+      }
+      entry = new Entry(torrent);
+      if (entry.weight > maxWeight) {
+        return;
+      }
+      torrents.put(torrent.getInfoHashHex(), entry);
+      weight += entry.weight;
+    }
+    if (uploadDigest != null && !entry.uploadDigests.contains(uploadDigest)) {
+      String previous = aliases.put(uploadDigest, torrent.getInfoHashHex());
+      if (previous != null && !previous.equals(torrent.getInfoHashHex())) {
+        torrents.get(previous).uploadDigests.remove(uploadDigest);
+      }
+      entry.uploadDigests.add(uploadDigest);
+    }
+    evict();
+  }
+
+  public synchronized int size() {
+    return torrents.size();
+  }
+
+  public synchronized long getWeight() {
+    return weight;
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, Entry>> eldest = torrents.entrySet().iterator();
+    while (weight > maxWeight && eldest.hasNext()) {
+      Entry entry = eldest.next().getValue();
+      eldest.remove();
+      forget(entry);
+    }
+  }
+
+  private void remove(String infoHashHex) {
+    Entry entry = torrents.remove(infoHashHex);
+    if (entry != null) {
+      forget(entry);
+    }
+  }
+
+  private void forget(Entry entry) {
+    weight -= entry.weight;
+    for (String uploadDigest : entry.uploadDigests) {
+      aliases.remove(uploadDigest);
+    }
+  }
+
+  private static long weigh(Torrent torrent) {
+    List<FileMetadata> files = torrent.getFiles();
+    return (
+      BASE_WEIGHT +
+      torrent.getPieces().length +
+      (files != null ? (long) files.size() * FILE_WEIGHT : 0)
+    );
+  }
+}
@@ -0,0 +1,645 @@
+package com.torring.service;
+
+import com.torring.config.TorrentProperties;
+import com.torring.model.Torrent;
+import com.torring.model.TorrentPriority;
+import com.torring.util.TorrentConstants;
+import io.micrometer.core.instrument.Meter;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TorrentDownload {
+
+  private static final Logger logger = LoggerFactory.getLogger(
+    TorrentDownload.class
+  );
+
+  private final Torrent torrent;
+  private final TorrentProperties properties;
+  private final Listener listener;
+  private final TorrentShare share;
+  private final TorrentMetrics metrics;
+  private final AtomicLong hashFailures = new AtomicLong(0);
+  // Registered while running, so a stopped torrent leaves no meters behind
+  private final List<Meter> meters = new ArrayList<>();
+  private final TorrentStorage storage;
+  private final ResumeData resumeData;
+  private final ReentrantLock checkpointLock = new ReentrantLock();
+  private volatile long lastCheckpointAt = System.currentTimeMillis();
+  private final boolean resumed;
+  private final int numPieces;
+  private final PiecePicker piecePicker;
+  private final TorrentUploader uploader;
+  private final PeerScoreboard scoreboard;
+  private final AtomicLong downloadedBytes = new AtomicLong(0);
+  private final Queue<String> candidatePeers = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger activeConnections = new AtomicInteger(0);
+  private final AtomicInteger inboundConnections = new AtomicInteger(0);
+  private final AtomicInteger runningWorkers = new AtomicInteger(0);
+  private final CompletableFuture<Void> completion = new CompletableFuture<>();
+  private ExecutorService peerExecutor;
+  private ExecutorService verifyExecutor;
+  private volatile boolean running;
+  // Set by stop() until the next start(), guarded by this
+  private boolean stopped;
+  private volatile PieceRechecker activeRecheck;
+
+  public interface Listener {
+    void onPieceCompleted(
+      TorrentDownload download,
+      int pieceIndex,
+      String peer
+    ) throws Exception;
+  }
+
+  public TorrentDownload(
+    Torrent torrent,
+    TorrentProperties properties,
+    Path downloadDir,
+    SessionManager sessionManager,
+    Listener listener
+  ) {
+    this.torrent = torrent;
+    this.properties = properties;
+    this.listener = listener;
+    this.share = sessionManager.register(torrent, TorrentPriority.NORMAL);
+    this.metrics = sessionManager.getMetrics();
+    this.storage = new TorrentStorage(torrent, downloadDir);
+    this.numPieces =
+      (int) Math.ceil(
+        (double) torrent.getTotalLength() / torrent.getPieceLength()
+      );
+    this.piecePicker = new PiecePicker(torrent, numPieces, share);
+    this.uploader =
+      new TorrentUploader(
+        torrent,
+        storage,
+        piecePicker,
+        properties.getUploadSlots()
+      );
+    this.scoreboard = new PeerScoreboard(torrent);
+    this.resumeData =
+      new ResumeData(
+        torrent,
+        storage.getMapper(),
+        numPieces,
+        downloadDir.resolve(TorrentConstants.RESUME_DIR_NAME)
+      );
+    BitSet resumedPieces = resumeData.load();
+    this.resumed = resumedPieces != null;
+    if (resumed) {
+      piecePicker.markCompleted(resumedPieces);
+      logger.info(
+        "Resumed {} with {}/{} pieces",
+        torrent.getName(),
+        resumedPieces.cardinality(),
+        numPieces
+      );
+    }
+  }
+
+  public Torrent getTorrent() {
+    return torrent;
+  }
+
+  public int getNumPieces() {
+    return numPieces;
+  }
+
+  public int getCompletedCount() {
+    return piecePicker.getCompletedCount();
+  }
+
+  public EndgameStats getEndgameStats() {
+    return piecePicker.getEndgameStats();
+  }
+
+  public int getActiveConnections() {
+    return activeConnections.get();
+  }
+
+  public boolean isComplete() {
+    return piecePicker.isComplete();
+  }
+
+  public TorrentPriority getPriority() {
+    return share.getPriority();
+  }
+
+  public void setPriority(TorrentPriority priority) {
+    share.setPriority(priority);
+  }
+
+  public CompletableFuture<Void> getCompletion() {
+    return completion;
+  }
+
+  public PeerScoreboard getScoreboard() {
+    return scoreboard;
+  }
+
+  public long getDownloadedBytes() {
+    return downloadedBytes.get();
+  }
+
+  public long getHashFailures() {
+    return hashFailures.get();
+  }
+
+  public long getUploadedBytes() {
+    return uploader.getUploaded();
+  }
+
+  public long getBytesLeft() {
+    BitSet completed = piecePicker.getCompletedPieces();
+    long left = torrent.getTotalLength();
+    int piece = completed.nextSetBit(0);
+    while (piece >= 0) {
+      left -= TorrentService.getPieceLength(torrent, piece);
+      piece = completed.nextSetBit(piece + 1);
+    }
+    return left;
+  }
+
+  public boolean isResumed() {
+    return resumed;
+  }
+
+  public boolean hasExistingData() {
+    return storage.hasExistingData();
+  }
+
+  public BitSet getCompletedPieces() {
+    return piecePicker.getCompletedPieces();
+  }
+
+  public PieceRechecker recheck(
+    ForkJoinPool pool,
+    BufferPool readBuffers,
+    IntConsumer onProgress
+  ) throws IOException {
+    PieceRechecker rechecker = new PieceRechecker(
+      torrent,
+      storage,
+      numPieces,
+      readBuffers
+    );
+    activeRecheck = rechecker;
+    BitSet verified;
+    try {
+      verified = rechecker.recheck(pool, onProgress);
+    } finally {
+      activeRecheck = null;
+    }
+    synchronized (this) {
+      if (stopped) {
+        // Reads still in flight may have reopened the files stop() closed
+        storage.close();
+        return rechecker;
+      }
+      piecePicker.markCompleted(verified);
+      checkpoint();
+    }
+    return rechecker;
+  }
+
+  public synchronized void start(List<String> peers) {
+    stopped = false;
+    if (isComplete()) {
+      completion.complete(null);
+      if (!properties.isSeedAfterDownload()) {
+        return;
+      }
+      // Nothing to fetch, but inbound peers can still be served
+      peers = List.of();
+    } else if (peers.isEmpty()) {
+      completion.completeExceptionally(
+        new RuntimeException("No peers available")
+      );
+      return;
+    }
+    candidatePeers.clear();
+    candidatePeers.addAll(peers);
+    running = true;
+    share.activate();
+    registerMeters();
+    peerExecutor =
+      Executors.newThreadPerTaskExecutor(
+        Thread
+          .ofVirtual()
+          .name("peer-" + torrent.getName() + "-", 0)
+          .factory()
+      );
+    int verifiers = properties.getVerifyParallelism() > 0
+      ? properties.getVerifyParallelism()
+      : Runtime.getRuntime().availableProcessors();
+    ThreadPoolExecutor verifyPool = new ThreadPoolExecutor(
+      verifiers,
+      verifiers,
+      60,
+      TimeUnit.SECONDS,
+      new ArrayBlockingQueue<>(TorrentConstants.VERIFY_QUEUE_LENGTH),
+      Thread
+        .ofPlatform()
+        .name("verify-" + torrent.getName() + "-", 0)
+        .daemon()
+        .factory(),
+      // A full queue slows the sessions feeding it down to hashing speed
+      (task, executor) -> task.run()
+    );
+    verifyPool.allowCoreThreadTimeOut(true);
+    verifyExecutor = verifyPool;
+    int connections = Math.min(
+      peers.size(),
+      properties.getMaxPeerConnections()
+    );
+    runningWorkers.addAndGet(connections);
+    for (int i = 0; i < connections; i++) {
+      peerExecutor.submit(this::peerWorker);
+    }
+    peerExecutor.submit(uploader::rechokeLoop);
+    logger.info(
+      "Started {} with {} peer connections",
+      torrent.getName(),
+      connections
+    );
+  }
+
+  public synchronized boolean acceptPeer(
+    SocketChannel channel,
+    byte[] handshake
+  ) throws IOException {
+    InetSocketAddress address = (InetSocketAddress) channel.getRemoteAddress();
+    if (
+      !running ||
+      scoreboard.isBannedHost(address.getAddress().getHostAddress()) ||
+      inboundConnections.get() >= properties.getMaxInboundConnections() ||
+      !share.tryAcquireConnection()
+    ) {
+      return false;
+    }
+    inboundConnections.incrementAndGet();
+    runningWorkers.incrementAndGet();
+    peerExecutor.submit(() -> inboundWorker(channel, handshake));
+    return true;
+  }
+
+  public synchronized void stop() throws IOException {
+    running = false;
+    stopped = true;
+    PieceRechecker recheck = activeRecheck;
+    if (recheck != null) {
+      recheck.cancel();
+    }
+    if (peerExecutor != null) {
+      peerExecutor.shutdownNow();
+      awaitTermination(peerExecutor);
+      peerExecutor = null;
+    }
+    if (verifyExecutor != null) {
+      // Queued pieces are still verified and written before storage closes
+      verifyExecutor.shutdown();
+      awaitTermination(verifyExecutor);
+      verifyExecutor = null;
+    }
+    share.deactivate();
+    piecePicker.discardPartialPieces();
+    metrics.remove(meters);
+    meters.clear();
+    try {
+      checkpoint();
+    } finally {
+      storage.close();
+    }
+  }
+
+  public void checkpoint() throws IOException {
+    checkpointLock.lock();
+    try {
+      // Piece data has to be durable before the bitfield claims it, so only
+      // pieces completed before the flush go into the saved bitfield
+      BitSet completed = piecePicker.getCompletedPieces();
+      storage.flush();
+      resumeData.save(completed);
+      lastCheckpointAt = System.currentTimeMillis();
+    } finally {
+      checkpointLock.unlock();
+    }
+  }
+
+  private static void awaitTermination(ExecutorService executor) {
+    try {
+      executor.awaitTermination(
+        TorrentConstants.STOP_TIMEOUT_SECONDS,
+        TimeUnit.SECONDS
+      );
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void peerWorker() {
+    try {
+      while (!isComplete()) {
+        // Connection slots are shared with every other running torrent
+        share.acquireConnection();
+        try {
+          String peer = candidatePeers.poll();
+          if (peer == null) {
+            return;
+          }
+          if (scoreboard.isBanned(peer)) {
+            continue;
+          }
+          connectAndDownload(
+            new PeerSession(
+              torrent,
+              peer,
+              properties.getMaxOutstandingRequests(),
+              piecePicker,
+              share,
+              uploader,
+              scoreboard
+            )
+          );
+        } finally {
+          share.releaseConnection();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      workerExited();
+    }
+  }
+
+  private void inboundWorker(SocketChannel channel, byte[] handshake) {
+    // The channel is closed here too in case the session never took it over
+    try (channel) {
+      connectAndDownload(
+        new PeerSession(
+          torrent,
+          channel,
+          handshake,
+          properties.getMaxOutstandingRequests(),
+          piecePicker,
+          share,
+          uploader,
+          scoreboard
+        )
+      );
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      logger.debug("Dropped inbound peer: {}", e.getMessage());
+    } finally {
+      share.releaseConnection();
+      inboundConnections.decrementAndGet();
+      workerExited();
+    }
+  }
+
+  private void workerExited() {
+    if (runningWorkers.decrementAndGet() == 0 && running && !isComplete()) {
+      completion.completeExceptionally(
+        new RuntimeException("Ran out of peers for " + torrent.getName())
+      );
+    }
+  }
+
+  private void connectAndDownload(PeerSession session)
+    throws InterruptedException {
+    activeConnections.incrementAndGet();
+    try (session) {
+      downloadFromPeer(session);
+    } finally {
+      activeConnections.decrementAndGet();
+    }
+  }
+
+  private void downloadFromPeer(PeerSession session)
+    throws InterruptedException {
+    String peer = session.getPeer();
+    int failures = 0;
+    while (!isComplete() && !Thread.currentThread().isInterrupted()) {
+      try {
+        session.downloadPieces(piece -> onPieceDownloaded(session, piece));
+        failures = 0;
+        if (!isComplete()) {
+          // Other sessions may still hand pieces back, so stay connected
+          Thread.sleep(TorrentConstants.IDLE_POLL_INTERVAL);
+        }
+      } catch (InterruptedException e) {
+        throw e;
+      } catch (Exception e) {
+        List<Integer> abandoned = session.abandonPieces();
+        PeerScore score = session.getScore();
+        score.error();
+        System.err.printf(
+          "Failed to download pieces %s from peer %s: %s\n",
+          abandoned,
+          peer,
+          e.getMessage()
+        );
+        // Inbound peers can't be dialled back once they drop
+        if (
+          score.isBanned() ||
+          score.getErrors() >= TorrentConstants.MAX_PEER_ERRORS ||
+          (!session.isAlive() &&
+            (session.isInbound() ||
+              ++failures >= TorrentConstants.MAX_RETRIES))
+        ) {
+          return;
+        }
+        // Peers with a worse record wait longer before we try them again
+        Thread.sleep(
+          Math.min(
+            TorrentConstants.MAX_RETRY_BACKOFF,
+            1000L << Math.min(score.getErrors() - 1, 5)
+          )
+        );
+      }
+    }
+    if (isComplete() && properties.isSeedAfterDownload()) {
+      try {
+        session.serveUploads();
+      } catch (InterruptedException e) {
+        throw e;
+      } catch (Exception e) {
+        logger.debug("Stopped seeding to {}: {}", peer, e.getMessage());
+      }
+    }
+  }
+
+  private void onPieceDownloaded(
+    PeerSession session,
+    PartialPiece partialPiece
+  ) throws Exception {
+    String peer = session.getPeer();
+    if (!partialPiece.isHashed()) {
+      // Blocks that came out of order are hashed off the network thread
+      verifyExecutor.execute(() -> {
+        try {
+          verifyAndStore(partialPiece, peer);
+        } catch (Exception e) {
+          logger.warn(
+            "Failed to store piece {} of {}: {}",
+            partialPiece.getIndex(),
+            torrent.getName(),
+            e.getMessage()
+          );
+        }
+      });
+      return;
+    }
+    verifyAndStore(partialPiece, peer);
+    if (session.getScore().isBanned()) {
+      throw new IOException("Banned " + peer + " for sending corrupt data");
+    }
+  }
+
+  private void verifyAndStore(PartialPiece partialPiece, String peer)
+    throws Exception {
+    int pieceIndex = partialPiece.getIndex();
+    long verifyStartedAt = System.nanoTime();
+    boolean verified = partialPiece.verify(torrent.getPieces());
+    metrics
+      .getVerifyTimer()
+      .record(System.nanoTime() - verifyStartedAt, TimeUnit.NANOSECONDS);
+    if (!verified) {
+      System.err.printf(
+        "Failed to verify piece %d from peer %s\n",
+        pieceIndex,
+        peer
+      );
+      hashFailures.incrementAndGet();
+      piecePicker.pieceFailed(partialPiece);
+      // Banned sessions notice on their next request and hang up
+      scoreboard.hashFailed(partialPiece.getContributors());
+      return;
+    }
+    byte[] piece = partialPiece.getData();
+    long writeStartedAt = System.nanoTime();
+    try {
+      storage.writePiece(pieceIndex, piece);
+      metrics
+        .getDiskWriteTimer()
+        .record(System.nanoTime() - writeStartedAt, TimeUnit.NANOSECONDS);
+    } catch (IOException e) {
+      piecePicker.pieceFailed(partialPiece);
+      throw e;
+    }
+    piecePicker.pieceVerified(partialPiece);
+    downloadedBytes.addAndGet(piece.length);
+    uploader.broadcastHave(pieceIndex);
+    maybeCheckpoint();
+    if (isComplete()) {
+      completion.complete(null);
+    }
+    listener.onPieceCompleted(this, pieceIndex, peer);
+  }
+
+  private void registerMeters() {
+    meters.add(
+      metrics.torrentGauge(
+        "torrent.pieces.pending",
+        torrent,
+        piecePicker,
+        PiecePicker::getPendingCount
+      )
+    );
+    meters.add(
+      metrics.torrentGauge(
+        "torrent.pieces.in.progress",
+        torrent,
+        piecePicker,
+        PiecePicker::getInProgressCount
+      )
+    );
+    meters.add(
+      metrics.torrentGauge(
+        "torrent.peers.active",
+        torrent,
+        activeConnections,
+        AtomicInteger::get
+      )
+    );
+    meters.add(
+      metrics.torrentCounter(
+        "torrent.downloaded.bytes",
+        torrent,
+        share,
+        TorrentShare::getReceivedBytes
+      )
+    );
+    meters.add(
+      metrics.torrentCounter(
+        "torrent.uploaded.bytes",
+        torrent,
+        uploader,
+        TorrentUploader::getUploaded
+      )
+    );
+    meters.add(
+      metrics.torrentCounter(
+        "torrent.piece.hash.failures",
+        torrent,
+        hashFailures,
+        AtomicLong::get
+      )
+    );
+    meters.add(
+      metrics.torrentCounter(
+        "torrent.peer.bans",
+        torrent,
+        scoreboard,
+        PeerScoreboard::getBanCount
+      )
+    );
+    meters.add(
+      metrics.torrentCounter(
+        "torrent.peer.snubs",
+        torrent,
+        scoreboard,
+        PeerScoreboard::getSnubCount
+      )
+    );
+  }
+
+  private void maybeCheckpoint() {
+    long interval = properties.getResumeCheckpointInterval().toMillis();
+    if (
+      System.currentTimeMillis() - lastCheckpointAt < interval ||
+      !checkpointLock.tryLock()
+    ) {
+      return;
+    }
+    try {
+      checkpoint();
+    } catch (IOException e) {
+      logger.warn("Failed to checkpoint {}: {}", torrent.getName(), e);
+    } finally {
+      checkpointLock.unlock();
+    }
+  }
+}
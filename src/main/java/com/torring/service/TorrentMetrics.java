@@ -0,0 +1,121 @@
+package com.torring.service;
+
+import com.torring.model.Torrent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+public class TorrentMetrics {
+
+  private final MeterRegistry registry;
+  private final Timer announceTimer;
+  private final Timer connectTimer;
+  private final Timer handshakeTimer;
+  private final Timer blockRttTimer;
+  private final Timer diskWriteTimer;
+  private final Timer verifyTimer;
+  private final DistributionSummary requestWindowSummary;
+
+  public TorrentMetrics(MeterRegistry registry) {
+    this.registry = registry;
+    this.announceTimer = timer("torrent.tracker.announce");
+    this.connectTimer = timer("torrent.peer.connect");
+    this.handshakeTimer = timer("torrent.peer.handshake");
+    this.blockRttTimer = timer("torrent.block.rtt");
+    this.diskWriteTimer = timer("torrent.disk.write");
+    this.verifyTimer = timer("torrent.piece.verify");
+    this.requestWindowSummary =
+      DistributionSummary
+        .builder("torrent.peer.request.window")
+        .baseUnit("requests")
+        .publishPercentileHistogram()
+        .register(registry);
+  }
+
+  public MeterRegistry getRegistry() {
+    return registry;
+  }
+
+  public Timer getAnnounceTimer() {
+    return announceTimer;
+  }
+
+  public Timer getConnectTimer() {
+    return connectTimer;
+  }
+
+  public Timer getHandshakeTimer() {
+    return handshakeTimer;
+  }
+
+  public Timer getBlockRttTimer() {
+    return blockRttTimer;
+  }
+
+  public Timer getDiskWriteTimer() {
+    return diskWriteTimer;
+  }
+
+  public Timer getVerifyTimer() {
+    return verifyTimer;
+  }
+
+  public DistributionSummary getRequestWindowSummary() {
+    return requestWindowSummary;
+  }
+
+  public Counter peerDownloadedBytes(Torrent torrent, String peer) {
+    // Removed again when the session closes, peers come and go too often
+    return Counter
+      .builder("torrent.peer.downloaded.bytes")
+      .baseUnit("bytes")
+      .tag("torrent", torrent.getInfoHashHex())
+      .tag("peer", peer)
+      .register(registry);
+  }
+
+  public <T> Gauge torrentGauge(
+    String name,
+    Torrent torrent,
+    T state,
+    ToDoubleFunction<T> value
+  ) {
+    return Gauge
+      .builder(name, state, value)
+      .tag("torrent", torrent.getInfoHashHex())
+      .register(registry);
+  }
+
+  // Backed by the torrent's own totals, so it can be removed when the
+  // download stops and registered again on resume without losing counts
+  public <T> FunctionCounter torrentCounter(
+    String name,
+    Torrent torrent,
+    T state,
+    ToDoubleFunction<T> value
+  ) {
+    return FunctionCounter
+      .builder(name, state, value)
+      .tag("torrent", torrent.getInfoHashHex())
+      .register(registry);
+  }
+
+  public void remove(List<? extends Meter> meters) {
+    for (Meter meter : meters) {
+      registry.remove(meter);
+    }
+  }
+
+  private Timer timer(String name) {
+    return Timer
+      .builder(name)
+      .publishPercentileHistogram()
+      .register(registry);
+  }
+}
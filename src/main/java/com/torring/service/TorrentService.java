@@ -1,41 +1,50 @@
 package com.torring.service;
 
 import com.dampcake.bencode.Type;
-import com.torring.model.PeerMessage;
+import com.torring.config.TorrentProperties;
+import com.torring.model.DownloadJobState;
+import com.torring.model.DownloadJobStatus;
+import com.torring.model.RecheckResult;
+import com.torring.model.ScrapeResult;
 import com.torring.model.Torrent;
+import com.torring.model.TorrentPriority;
 import com.torring.util.TorrentConstants;
 import com.torring.util.TorrentUtils;
 import com.torring.util.TorrentWebSocketHandler;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.File;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
-import java.net.Socket;
 import java.net.URI;
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -48,11 +57,38 @@ public class TorrentService {
   @Autowired
   private TorrentWebSocketHandler torrentWebSocketHandler;
 
+  @Autowired
+  private TorrentProperties torrentProperties;
+
+  @Autowired
+  private ProgressBroadcaster progressBroadcaster;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private UdpTrackerClient udpTracker;
+
   private static final Logger logger = LoggerFactory.getLogger(
     TorrentService.class
   );
 
-  public String saveTorrentFile(MultipartFile file) throws IOException {
+  private ForkJoinPool recheckPool;
+  // One read-ahead buffer per recheck worker, shared by every recheck
+  private BufferPool recheckBuffers;
+  private TorrentMetrics metrics;
+  private SessionManager sessionManager;
+  private TorrentCache torrentCache;
+  private PeerListener peerListener;
+  private final Map<String, DownloadJob> jobs = new ConcurrentHashMap<>();
+  // Info hashes being rechecked outside a job, guarded by jobs
+  private final Set<String> rechecking = new HashSet<>();
+  private final ExecutorService jobExecutor =
+    Executors.newVirtualThreadPerTaskExecutor();
+  private final ScheduledExecutorService jobScheduler =
+    Executors.newSingleThreadScheduledExecutor();
+
+  public Torrent loadTorrent(MultipartFile file) throws Exception {
     if (file == null || file.isEmpty()) {
       throw new IllegalArgumentException("File cannot be null or empty");
     }
@@ -64,6 +100,23 @@ public class TorrentService {
       throw new IllegalArgumentException("Only .torrent files are allowed");
     }
 
+    byte[] torrentFile = file.getBytes();
+    String uploadDigest = TorrentUtils.bytesToHex(
+      MessageDigest.getInstance("SHA-256").digest(torrentFile)
+    );
+    // Uploading the same file again skips the disk and the bencode decoding
+    Torrent torrent = torrentCache.getByUploadDigest(uploadDigest);
+    if (torrent != null) {
+      return torrent;
+    }
+    torrent = new Torrent(torrentFile);
+    saveTorrentFile(originalFileName, torrentFile);
+    torrentCache.put(uploadDigest, torrent);
+    return torrent;
+  }
+
+  private static void saveTorrentFile(String fileName, byte[] torrentFile)
+    throws IOException {
     Path dirPath = Paths
       .get(TorrentConstants.TORRENT_FILE_DIR_PATH)
       .toAbsolutePath()
@@ -71,104 +124,599 @@ public class TorrentService {
     if (!Files.exists(dirPath)) {
       Files.createDirectories(dirPath);
     }
+    Files.write(dirPath.resolve(fileName), torrentFile);
+  }
 
-    Path torrentFilePath = dirPath.resolve(originalFileName);
-    file.transferTo(torrentFilePath.toFile());
-    return torrentFilePath.toString();
+  @PostConstruct
+  public void init() {
+    int parallelism = torrentProperties.getRecheckParallelism();
+    if (parallelism <= 0) {
+      parallelism = Runtime.getRuntime().availableProcessors();
+    }
+    recheckPool = new ForkJoinPool(parallelism);
+    recheckBuffers =
+      new BufferPool(
+        (int) Math.min(
+          torrentProperties.getRecheckReadAhead().toBytes(),
+          Integer.MAX_VALUE
+        ),
+        parallelism,
+        true
+      );
+    metrics = new TorrentMetrics(meterRegistry);
+    torrentCache =
+      new TorrentCache(torrentProperties.getMetadataCacheSize().toBytes());
+    sessionManager =
+      new SessionManager(
+        metrics,
+        torrentProperties.getMaxTotalConnections(),
+        torrentProperties.getMaxHalfOpenConnections(),
+        torrentProperties.getMaxInFlightMemory().toBytes(),
+        torrentProperties.getMaxDownloadRate().toBytes()
+      );
+    sessionManager.registerGauges();
+    peerListener =
+      new PeerListener(
+        torrentProperties.getListenPort(),
+        torrentProperties.getListenBacklog(),
+        this::findActiveDownload
+      );
+    try {
+      peerListener.start();
+    } catch (IOException e) {
+      // Outbound peers still work, we just can't be reached
+      logger.warn(
+        "Failed to listen for peers on port {}: {}",
+        torrentProperties.getListenPort(),
+        e.getMessage()
+      );
+    }
   }
 
-  public void downloadFile(MultipartFile torrentFile) throws Exception {
-    String torrentFilePath = saveTorrentFile(torrentFile);
-    Torrent torrent = new Torrent(torrentFilePath);
-    List<String> peers = getPeersList(torrent);
-    if (peers.isEmpty()) {
-      throw new RuntimeException("No peers available");
+  @PreDestroy
+  public void shutdown() {
+    peerListener.close();
+    jobScheduler.shutdownNow();
+    jobExecutor.shutdownNow();
+    for (DownloadJob job : jobs.values()) {
+      if (job.getState().isFinished()) {
+        continue;
+      }
+      try {
+        // Leave a checkpoint behind so the next start resumes from it
+        job.getDownload().stop();
+      } catch (IOException e) {
+        logger.warn("Failed to stop download job {}: {}", job.getId(), e);
+      }
+      announceStopped(job);
     }
-    long fileLength = torrent.getTotalLength();
-    int pieceLength = torrent.getPieceLength();
-    byte[] pieces = torrent.getPieces();
-    int numPieces = (int) Math.ceil((double) fileLength / pieceLength);
-    Queue<Integer> workQueue = new ConcurrentLinkedQueue<>();
-    for (int i = 0; i < numPieces; i++) {
-      workQueue.offer(i);
+    recheckPool.shutdownNow();
+  }
+
+  public RecheckResult recheckFile(MultipartFile torrentFile)
+    throws Exception {
+    Torrent torrent = loadTorrent(torrentFile);
+    synchronized (jobs) {
+      // A second set of channels on the files of a running job would race
+      // its writes and stomp on its resume data
+      checkNotActive(torrent);
+      rechecking.add(torrent.getInfoHashHex());
     }
-    Set<Integer> completedPieces = ConcurrentHashMap.newKeySet();
-    AtomicInteger completedCount = new AtomicInteger(0);
-    ConcurrentMap<Integer, byte[]> pieceBuffer = new ConcurrentHashMap<>();
-    ExecutorService executorService = Executors.newFixedThreadPool(
-      TorrentConstants.NUM_WORKERS
-    );
-    List<Future<?>> futures = new ArrayList<>();
-    for (int i = 0; i < TorrentConstants.NUM_WORKERS; i++) {
-      final String peer = peers.get(i % peers.size());
-      Future<?> future = executorService.submit(() ->
-        downloadWorker(
-          torrent,
-          peer,
-          workQueue,
-          completedPieces,
-          completedCount,
-          pieceBuffer,
-          numPieces,
-          pieces
+    TorrentDownload download = null;
+    try {
+      download = createDownload(torrent);
+      PieceRechecker rechecker = recheck(download);
+      return new RecheckResult(
+        torrent.getName(),
+        torrent.getInfoHashHex(),
+        rechecker.getNumPieces(),
+        rechecker.getVerifiedCount(),
+        rechecker.getElapsedMillis(),
+        rechecker.getPiecesPerSecond(),
+        TorrentUtils.bytesToHex(
+          TorrentUtils.bitSetToBitfield(
+            download.getCompletedPieces(),
+            download.getNumPieces()
+          )
         )
       );
-      futures.add(future);
+    } finally {
+      try {
+        if (download != null) {
+          download.stop();
+        }
+      } finally {
+        synchronized (jobs) {
+          rechecking.remove(torrent.getInfoHashHex());
+        }
+      }
+    }
+  }
+
+  public DownloadJobStatus startDownload(
+    MultipartFile torrentFile,
+    Duration timeout,
+    TorrentPriority priority
+  ) throws Exception {
+    Torrent torrent = loadTorrent(torrentFile);
+    if (timeout == null) {
+      timeout = torrentProperties.getDownloadTimeout();
+    }
+    Instant deadline = timeout != null && timeout.isPositive()
+      ? Instant.now().plus(timeout)
+      : null;
+    DownloadJob job;
+    synchronized (jobs) {
+      checkNotActive(torrent);
+      job =
+        new DownloadJob(
+          UUID.randomUUID().toString(),
+          createDownload(torrent),
+          deadline
+        );
+      jobs.put(job.getId(), job);
+    }
+    if (priority != null) {
+      job.getDownload().setPriority(priority);
+    }
+    CompletableFuture<Void> completion = job.getDownload().getCompletion();
+    // Stopping a download joins its peer threads, so never finish on one
+    completion.whenCompleteAsync(
+      (result, error) -> finishJob(job, error),
+      jobExecutor
+    );
+    if (deadline != null) {
+      long timeoutSeconds = timeout.toSeconds();
+      jobScheduler.schedule(
+        () ->
+          completion.completeExceptionally(
+            new TimeoutException(
+              "Download timed out after " + timeoutSeconds + " seconds"
+            )
+          ),
+        timeout.toMillis(),
+        TimeUnit.MILLISECONDS
+      );
+    }
+    job.submit(jobExecutor, () -> runJob(job, true));
+    logger.info("Queued job {} for {}", job.getId(), torrent.getName());
+    return job.toStatus();
+  }
+
+  public List<DownloadJobStatus> getJobs() {
+    List<DownloadJobStatus> statuses = new ArrayList<>();
+    for (DownloadJob job : jobs.values()) {
+      statuses.add(job.toStatus());
+    }
+    return statuses;
+  }
+
+  public DownloadJobStatus getJob(String jobId) {
+    return findJob(jobId).toStatus();
+  }
+
+  public DownloadJobStatus pauseJob(String jobId) throws IOException {
+    DownloadJob job = findJob(jobId);
+    job.pause();
+    announceStopped(job);
+    logger.info("Paused download job {}", jobId);
+    return job.toStatus();
+  }
+
+  public DownloadJobStatus resumeJob(String jobId) {
+    DownloadJob job = findJob(jobId);
+    job.resume(jobExecutor, () -> runJob(job, false));
+    logger.info("Resumed download job {}", jobId);
+    return job.toStatus();
+  }
+
+  public DownloadJobStatus setJobPriority(
+    String jobId,
+    TorrentPriority priority
+  ) {
+    DownloadJob job = findJob(jobId);
+    job.getDownload().setPriority(priority);
+    logger.info("Set priority of download job {} to {}", jobId, priority);
+    return job.toStatus();
+  }
+
+  public DownloadJobStatus cancelJob(String jobId) throws IOException {
+    DownloadJob job = findJob(jobId);
+    if (job.stopSeeding()) {
+      retainFinishedJob(job);
+      announceStopped(job);
+      logger.info(
+        "Stopped seeding {} after uploading {} bytes",
+        job.getTorrent().getName(),
+        job.getDownload().getUploadedBytes()
+      );
+      return job.toStatus();
+    }
+    if (
+      !job
+        .getDownload()
+        .getCompletion()
+        .completeExceptionally(new CancellationException("Cancelled"))
+    ) {
+      throw new IllegalStateException(
+        "Job " + jobId + " has already finished"
+      );
+    }
+    return job.toStatus();
+  }
+
+  // Callers hold the jobs lock
+  private void checkNotActive(Torrent torrent) {
+    if (rechecking.contains(torrent.getInfoHashHex())) {
+      throw new IllegalStateException(
+        torrent.getName() + " is being rechecked"
+      );
+    }
+    for (DownloadJob other : jobs.values()) {
+      if (
+        !other.getState().isFinished() &&
+        other.getTorrent().getInfoHashHex().equals(torrent.getInfoHashHex())
+      ) {
+        throw new IllegalStateException(
+          torrent.getName() + " is already downloading in " + other.getId()
+        );
+      }
+    }
+  }
+
+  private TorrentDownload findActiveDownload(String infoHashHex) {
+    for (DownloadJob job : jobs.values()) {
+      DownloadJobState state = job.getState();
+      if (
+        (state == DownloadJobState.RUNNING ||
+          state == DownloadJobState.SEEDING) &&
+        job.getTorrent().getInfoHashHex().equals(infoHashHex)
+      ) {
+        return job.getDownload();
+      }
+    }
+    return null;
+  }
+
+  private DownloadJob findJob(String jobId) {
+    DownloadJob job = jobs.get(jobId);
+    if (job == null) {
+      throw new NoSuchElementException("No download job " + jobId);
     }
+    return job;
+  }
+
+  private void runJob(DownloadJob job, boolean checkExistingData) {
+    TorrentDownload download = job.getDownload();
     try {
-      long startTime = System.currentTimeMillis();
-      while (
-        completedCount.get() < numPieces &&
-        System.currentTimeMillis() -
-        startTime <
-        TorrentConstants.TIMEOUT_SECONDS *
-        1000
+      if (
+        checkExistingData &&
+        !download.isResumed() &&
+        download.hasExistingData() &&
+        job.transition(DownloadJobState.QUEUED, DownloadJobState.CHECKING)
       ) {
-        Thread.sleep(100);
+        // Data without a checkpoint, find out what survived before asking peers
+        recheck(download);
       }
-      if (completedCount.get() < numPieces) {
-        throw new TimeoutException(
-          "Download timed out after " +
-          TorrentConstants.TIMEOUT_SECONDS +
-          " seconds"
-        );
+      if (!job.isStarting()) {
+        return;
       }
-      try (
-        RandomAccessFile file = new RandomAccessFile(
-          TorrentConstants.DOWNLOAD_FILE_DIR_PATH + torrent.getName(),
-          "rw"
-        )
+      // Announce again on resume, the old peer list may have gone stale.
+      // A pause sent "stopped", so this is a fresh start to the tracker.
+      List<String> peers = List.of();
+      if (!download.isComplete()) {
+        peers =
+          metrics
+            .getAnnounceTimer()
+            .recordCallable(() -> announce(download, "started"));
+        job.announced();
+      } else if (
+        torrentProperties.isSeedAfterDownload() &&
+        announceQuietly(download, "started")
       ) {
-        file.setLength(fileLength);
-        for (int i = 0; i < numPieces; i++) {
-          byte[] piece = pieceBuffer.get(i);
-          if (piece == null) {
-            throw new RuntimeException("Missing piece " + i);
+        // Nothing to fetch, but the tracker should send leechers our way
+        job.announced();
+      }
+      if (!job.start(peers)) {
+        // Paused or cancelled while we were announcing
+        announceStopped(job);
+      }
+    } catch (Exception e) {
+      download.getCompletion().completeExceptionally(e);
+    }
+  }
+
+  private List<String> announce(TorrentDownload download, String event)
+    throws Exception {
+    return announce(
+      udpTracker,
+      download.getTorrent(),
+      peerListener.getPort(),
+      download.getUploadedBytes(),
+      download.getDownloadedBytes(),
+      download.getBytesLeft(),
+      event
+    );
+  }
+
+  private boolean announceQuietly(TorrentDownload download, String event) {
+    try {
+      announce(download, event);
+      return true;
+    } catch (Exception e) {
+      logger.warn(
+        "Failed to announce {} for {}: {}",
+        event,
+        download.getTorrent().getName(),
+        e.getMessage()
+      );
+      return false;
+    }
+  }
+
+  private void announceStopped(DownloadJob job) {
+    if (job.takeAnnounced()) {
+      announceQuietly(job.getDownload(), "stopped");
+    }
+  }
+
+  private void retainFinishedJob(DownloadJob job) {
+    Duration retention = torrentProperties.getFinishedJobRetention();
+    if (retention != null && !retention.isNegative()) {
+      jobScheduler.schedule(
+        () -> jobs.remove(job.getId(), job),
+        retention.toMillis(),
+        TimeUnit.MILLISECONDS
+      );
+    }
+    // Drop the oldest ones past the limit so a busy server stays bounded
+    List<DownloadJob> finished = new ArrayList<>();
+    for (DownloadJob other : jobs.values()) {
+      if (other.getState().isFinished()) {
+        finished.add(other);
+      }
+    }
+    int excess = finished.size() - torrentProperties.getMaxFinishedJobs();
+    if (excess <= 0) {
+      return;
+    }
+    finished.sort(Comparator.comparing(DownloadJob::getFinishedAt));
+    for (DownloadJob old : finished.subList(0, excess)) {
+      jobs.remove(old.getId(), old);
+    }
+  }
+
+  private void finishJob(DownloadJob job, Throwable error) {
+    if (error == null) {
+      announceQuietly(job.getDownload(), "completed");
+      if (torrentProperties.isSeedAfterDownload() && job.seed()) {
+        logger.info(
+          "Downloaded {}, seeding: {}",
+          job.getTorrent().getName(),
+          job.getDownload().getEndgameStats()
+        );
+        torrentWebSocketHandler.sendMessageToAll(
+          "Download of " + job.getTorrent().getName() + " completed, seeding"
+        );
+        return;
+      }
+    }
+    DownloadJobState state = error == null
+      ? DownloadJobState.COMPLETED
+      : error instanceof CancellationException
+        ? DownloadJobState.CANCELLED
+        : DownloadJobState.FAILED;
+    String name = job.getTorrent().getName();
+    try {
+      job.finish(state, error == null ? null : error.getMessage());
+    } catch (IOException e) {
+      logger.warn("Failed to stop download job {}: {}", job.getId(), e);
+    }
+    announceStopped(job);
+    retainFinishedJob(job);
+    if (error == null) {
+      logger.info(
+        "Downloaded {}: {}",
+        name,
+        job.getDownload().getEndgameStats()
+      );
+    } else {
+      logger.info("Download job {} {}: {}", job.getId(), state, error);
+    }
+    torrentWebSocketHandler.sendMessageToAll(
+      "Download of " + name + " " + state.name().toLowerCase()
+    );
+  }
+
+  private TorrentDownload createDownload(Torrent torrent) {
+    return new TorrentDownload(
+      torrent,
+      torrentProperties,
+      Paths.get(TorrentConstants.DOWNLOAD_FILE_DIR_PATH),
+      sessionManager,
+      this::onPieceCompleted
+    );
+  }
+
+  private PieceRechecker recheck(TorrentDownload download) throws IOException {
+    String name = download.getTorrent().getName();
+    int numPieces = download.getNumPieces();
+    int step = Math.max(1, numPieces / 100);
+    PieceRechecker rechecker = download.recheck(
+      recheckPool,
+      recheckBuffers,
+      checked -> {
+        if (checked % step != 0 && checked != numPieces) {
+          return;
+        }
+        torrentWebSocketHandler.sendMessageToAll(
+          "Rechecked " + checked + "/" + numPieces + " pieces of " + name
+        );
+      }
+    );
+    logger.info(
+      "Rechecked {}: {}/{} pieces valid in {}ms ({} pieces/s)",
+      name,
+      rechecker.getVerifiedCount(),
+      numPieces,
+      rechecker.getElapsedMillis(),
+      String.format("%.1f", rechecker.getPiecesPerSecond())
+    );
+    return rechecker;
+  }
+
+  private void onPieceCompleted(
+    TorrentDownload download,
+    int pieceIndex,
+    String peer
+  ) {
+    int completed = download.getCompletedCount();
+    int numPieces = download.getNumPieces();
+    String percentage = String.format("%.1f", (completed * 100.0) / numPieces);
+    progressBroadcaster.pieceCompleted(download, pieceIndex);
+    logger.info(
+      "Downloaded piece {}/{} ({}%) from {}",
+      completed,
+      numPieces,
+      percentage,
+      peer
+    );
+  }
+
+  public static List<String> getPeersList(
+    UdpTrackerClient udpTracker,
+    Torrent torrent
+  ) throws Exception {
+    return announce(
+      udpTracker,
+      torrent,
+      TorrentConstants.PORT,
+      0,
+      0,
+      torrent.getTotalLength(),
+      null
+    );
+  }
+
+  public static List<String> announce(
+    UdpTrackerClient udpTracker,
+    Torrent torrent,
+    int port,
+    long uploaded,
+    long downloaded,
+    long left,
+    String event
+  ) throws Exception {
+    Exception failure = null;
+    for (String trackerUrl : trackerUrls(torrent)) {
+      try {
+        if (trackerUrl.startsWith("udp://")) {
+          return udpTracker.announce(
+            new URI(trackerUrl),
+            torrent.getInfoHash(),
+            port,
+            uploaded,
+            downloaded,
+            left,
+            event
+          );
+        }
+        return announceHttp(
+          trackerUrl,
+          torrent,
+          port,
+          uploaded,
+          downloaded,
+          left,
+          event
+        );
+      } catch (Exception e) {
+        logger.debug("Tracker {} failed: {}", trackerUrl, e.getMessage());
+        failure = e;
+      }
+    }
+    if (failure == null) {
+      throw new RuntimeException(
+        "No supported tracker for " + torrent.getName()
+      );
+    }
+    throw failure;
+  }
+
+  static List<String> trackerUrls(Torrent torrent) {
+    // BEP 12 tiers in order, announce only counts when there is no list.
+    // Within a tier UDP goes first, it needs no TCP setup or HTTP parse.
+    List<List<String>> tiers = torrent.getAnnounceUrlList();
+    if (tiers == null || tiers.isEmpty()) {
+      tiers =
+        torrent.getAnnounceUrl() == null
+          ? List.of()
+          : List.of(List.of(torrent.getAnnounceUrl()));
+    }
+    List<String> urls = new ArrayList<>();
+    for (List<String> tier : tiers) {
+      for (boolean udp : new boolean[] { true, false }) {
+        for (String url : tier) {
+          boolean supported = udp
+            ? url.startsWith("udp://")
+            : url.startsWith("http://") || url.startsWith("https://");
+          if (supported && !urls.contains(url)) {
+            urls.add(url);
           }
-          long offset = (long) i * pieceLength;
-          file.seek(offset);
-          file.write(piece);
         }
       }
-      // logger.info("Download completed successfully!");
-    } finally {
-      executorService.shutdownNow();
-      for (Future<?> future : futures) {
-        try {
-          future.cancel(true);
-        } catch (Exception e) {
-          // Ignore cancellation exceptions
+    }
+    return urls;
+  }
+
+  public List<ScrapeResult> scrapeJobs() {
+    // One request per tracker covers all of its torrents
+    Map<String, List<byte[]>> infoHashes = new LinkedHashMap<>();
+    for (DownloadJob job : jobs.values()) {
+      Torrent torrent = job.getDownload().getTorrent();
+      for (String trackerUrl : trackerUrls(torrent)) {
+        if (trackerUrl.startsWith("udp://")) {
+          infoHashes
+            .computeIfAbsent(trackerUrl, url -> new ArrayList<>())
+            .add(torrent.getInfoHash());
+          break;
         }
       }
     }
+    List<ScrapeResult> results = new ArrayList<>();
+    for (Map.Entry<String, List<byte[]>> entry : infoHashes.entrySet()) {
+      try {
+        results.addAll(
+          udpTracker.scrape(new URI(entry.getKey()), entry.getValue())
+        );
+      } catch (Exception e) {
+        logger.warn(
+          "Failed to scrape {}: {}",
+          entry.getKey(),
+          e.getMessage()
+        );
+      }
+    }
+    return results;
   }
 
-  public static List<String> getPeersList(Torrent torrent) throws Exception {
-    List<String> peers = new ArrayList<>();
+  private static List<String> announceHttp(
+    String announceUrl,
+    Torrent torrent,
+    int port,
+    long uploaded,
+    long downloaded,
+    long left,
+    String event
+  ) throws Exception {
     String url = TorrentUtils.buildTrackerUrl(
-      torrent.getAnnounceUrl(),
+      announceUrl,
       torrent.getInfoHash(),
-      torrent.getTotalLength()
+      port,
+      uploaded,
+      downloaded,
+      left,
+      event
     );
     HttpURLConnection conn = (HttpURLConnection) new URI(url)
       .toURL()
@@ -180,9 +728,17 @@ public class TorrentService {
         response,
         Type.DICTIONARY
       );
+      if (trackerResponse.containsKey("failure reason")) {
+        throw new RuntimeException(
+          "Tracker failure: " + trackerResponse.get("failure reason")
+        );
+      }
       byte[] peersData;
       Object peersObj = trackerResponse.get("peers");
-      if (peersObj instanceof String) {
+      if (peersObj == null) {
+        // Completed and stopped announces don't have to list anyone
+        return new ArrayList<>();
+      } else if (peersObj instanceof String) {
         peersData = ((String) peersObj).getBytes(StandardCharsets.ISO_8859_1);
       } else if (peersObj instanceof byte[]) {
         peersData = (byte[]) peersObj;
@@ -191,188 +747,45 @@ public class TorrentService {
           "Unexpected peers data type: " + peersObj.getClass()
         );
       }
-      for (int i = 0; i < peersData.length; i += 6) {
-        if (i + 6 <= peersData.length) {
-          String ip = String.format(
-            "%d.%d.%d.%d",
-            peersData[i] & 0xFF,
-            peersData[i + 1] & 0xFF,
-            peersData[i + 2] & 0xFF,
-            peersData[i + 3] & 0xFF
-          );
-          int port = (peersData[i + 4] & 0xFF) << 8 | (peersData[i + 5] & 0xFF);
-          peers.add(ip + ":" + port);
-        }
-      }
+      return TorrentUtils.decodeCompactPeers(peersData, 0, peersData.length);
     }
-    return peers;
   }
 
-  private void downloadWorker(
+  public static void verifyPiece(
     Torrent torrent,
-    String peer,
-    Queue<Integer> workQueue,
-    Set<Integer> completedPieces,
-    AtomicInteger completedCount,
-    ConcurrentMap<Integer, byte[]> pieceBuffer,
-    int numPieces,
-    byte[] pieces
-  ) {
-    while (!Thread.currentThread().isInterrupted()) {
-      Integer pieceIndex = workQueue.poll();
-      if (pieceIndex == null) {
-        break;
-      }
-      if (completedPieces.contains(pieceIndex)) {
-        continue;
-      }
-      try {
-        byte[] piece = downloadPiece(torrent, pieceIndex);
-        byte[] expectedHash = Arrays.copyOfRange(
-          pieces,
-          pieceIndex * 20,
-          (pieceIndex + 1) * 20
-        );
-        byte[] actualHash = MessageDigest.getInstance("SHA-1").digest(piece);
-        if (Arrays.equals(expectedHash, actualHash)) {
-          pieceBuffer.put(pieceIndex, piece);
-          completedPieces.add(pieceIndex);
-          int completed = completedCount.incrementAndGet();
-          String percentage = String.format(
-            "%.1f",
-            (completed * 100.0) / numPieces
-          );
-          torrentWebSocketHandler.sendMessageToAll(
-            "Downloaded " +
-            completed +
-            "/" +
-            numPieces +
-            " pieces of " +
-            torrent.getName()
-          );
-          logger.info(
-            "Downloaded piece {}/{} ({}%) from {}",
-            completed,
-            numPieces,
-            percentage,
-            peer
-          );
-        } else {
-          workQueue.offer(pieceIndex);
-        }
-      } catch (Exception e) {
-        System.err.printf(
-          "Failed to download piece %d from peer %s: %s\n",
-          pieceIndex,
-          peer,
-          e.getMessage()
-        );
-        workQueue.offer(pieceIndex);
-        try {
-          Thread.sleep(1000);
-        } catch (InterruptedException ie) {
-          Thread.currentThread().interrupt();
-          break;
-        }
-      }
-    }
-  }
-
-  public static byte[] downloadPiece(Torrent torrent, int pieceIndex)
-    throws Exception {
-    List<String> peers = getPeersList(torrent);
-    if (peers.isEmpty()) {
-      throw new RuntimeException("No peers available");
-    }
-    byte[] downloadedPiece = null;
-    for (String peer : peers) {
-      String[] peerAddress = peer.split(":");
-      String peerHost = peerAddress[0];
-      int peerPort = Integer.parseInt(peerAddress[1]);
-      try (Socket socket = new Socket(peerHost, peerPort)) {
-        DataOutputStream socketOutput = new DataOutputStream(
-          socket.getOutputStream()
-        );
-        DataInputStream socketInput = new DataInputStream(
-          socket.getInputStream()
-        );
-        handshakeWithPeer(torrent, peer, socketInput, socketOutput);
-        downloadedPiece =
-          downloadPieceFromPeer(
-            torrent,
-            peerHost,
-            peerPort,
-            pieceIndex,
-            socketInput,
-            socketOutput
-          );
-        break;
-      } catch (Exception e) {
-        System.err.println(
-          "Failed to download from peer " + peer + ": " + e.getMessage()
-        );
-        continue;
-      }
-    }
-    if (downloadedPiece == null) {
-      throw new RuntimeException("Failed to download piece from any peer");
-    }
-    byte[] expectedHash = Arrays.copyOfRange(
-      torrent.getPieces(),
-      pieceIndex * 20,
-      (pieceIndex + 1) * 20
-    );
-    byte[] actualHash = MessageDigest
-      .getInstance("SHA-1")
-      .digest(downloadedPiece);
-    if (!Arrays.equals(expectedHash, actualHash)) {
+    int pieceIndex,
+    byte[] downloadedPiece
+  ) throws Exception {
+    byte[] actualHash = TorrentUtils.sha1().digest(downloadedPiece);
+    if (
+      !Arrays.equals(
+        actualHash,
+        0,
+        20,
+        torrent.getPieces(),
+        pieceIndex * 20,
+        (pieceIndex + 1) * 20
+      )
+    ) {
       throw new RuntimeException("Piece hash verification failed");
     }
-    Path parentDir = Paths
-      .get(
-        TorrentConstants.DOWNLOAD_PIECE_DIR_PATH +
-        TorrentUtils.getFileNameWithoutExtension(torrent.getName()) +
-        "-piece-" +
-        pieceIndex
-      )
-      .getParent();
-    if (parentDir != null && !Files.exists(parentDir)) {
-      Files.createDirectories(parentDir);
-    }
-    Files.write(
-      new File(
-        TorrentConstants.DOWNLOAD_PIECE_DIR_PATH +
-        TorrentUtils.getFileNameWithoutExtension(torrent.getName()) +
-        "-piece-" +
-        pieceIndex
-      )
-        .toPath(),
-      downloadedPiece
-    );
-    return downloadedPiece;
   }
 
-  public static String handshakeWithPeer(
+  public static byte[] handshakeWithPeer(
     Torrent torrent,
     String peerAddress,
-    DataInputStream socketInput,
-    DataOutputStream socketOutput
+    PeerWireCodec codec
   ) throws Exception {
     byte[] peerId = new byte[20];
     new Random().nextBytes(peerId);
     byte[] handshakeMsg = createHandshakeMessage(torrent.getInfoHash(), peerId);
     try {
-      socketOutput.write(handshakeMsg);
-      socketOutput.flush();
+      codec.writeRaw(handshakeMsg);
+      codec.flush();
       byte[] peerHandshakeMsg = new byte[TorrentConstants.HANDSHAKE_LENGTH];
-      socketInput.readFully(peerHandshakeMsg);
+      codec.readFully(peerHandshakeMsg);
       validatePeerHandshakeMsg(peerHandshakeMsg, torrent.getInfoHash());
-      byte[] receivedPeerId = Arrays.copyOfRange(
-        peerHandshakeMsg,
-        48,
-        TorrentConstants.HANDSHAKE_LENGTH
-      );
-      return TorrentUtils.bytesToHex(receivedPeerId);
+      return peerHandshakeMsg;
     } catch (Exception e) {
       System.err.println(
         "Handshake failed with peer " + peerAddress + ": " + e.getMessage()
@@ -381,6 +794,14 @@ public class TorrentService {
     }
   }
 
+  public static void answerHandshake(Torrent torrent, PeerWireCodec codec)
+    throws IOException {
+    byte[] peerId = new byte[20];
+    new Random().nextBytes(peerId);
+    codec.writeRaw(createHandshakeMessage(torrent.getInfoHash(), peerId));
+    codec.flush();
+  }
+
   private static byte[] createHandshakeMessage(byte[] infoHash, byte[] peerId) {
     byte[] handshake = new byte[TorrentConstants.HANDSHAKE_LENGTH];
     int offset = 0;
@@ -389,6 +810,8 @@ public class TorrentService {
       "BitTorrent protocol".getBytes(StandardCharsets.ISO_8859_1);
     System.arraycopy(protocol, 0, handshake, offset, protocol.length);
     offset += protocol.length;
+    handshake[TorrentConstants.FAST_EXTENSION_RESERVED_BYTE] |=
+      TorrentConstants.FAST_EXTENSION_FLAG;
     offset += 8;
     System.arraycopy(infoHash, 0, handshake, offset, 20);
     offset += 20;
@@ -396,6 +819,14 @@ public class TorrentService {
     return handshake;
   }
 
+  public static boolean supportsFastExtension(byte[] peerHandshakeMsg) {
+    return (
+      (peerHandshakeMsg[TorrentConstants.FAST_EXTENSION_RESERVED_BYTE] &
+        TorrentConstants.FAST_EXTENSION_FLAG) !=
+      0
+    );
+  }
+
   public static void validatePeerHandshakeMsg(
     byte[] peerHandshakeMsg,
     byte[] expectedInfoHash
@@ -415,113 +846,9 @@ public class TorrentService {
     }
   }
 
-  public static byte[] downloadPieceFromPeer(
-    Torrent torrent,
-    String host,
-    int port,
-    int pieceIndex,
-    DataInputStream socketInput,
-    DataOutputStream socketOutput
-  ) throws Exception {
-    PeerMessage bitfieldMsg = readMessageFromPeer(socketInput);
-    if (bitfieldMsg.getMessageId() != TorrentConstants.BITFIELD_ID) {
-      throw new RuntimeException(
-        "Expected bitfield message, got: " + bitfieldMsg.getMessageId()
-      );
-    }
-    sendMessageToPeer(
-      socketOutput,
-      TorrentConstants.INTERESTED_ID,
-      new byte[0]
-    );
-    PeerMessage unchokeMsg = readMessageFromPeer(socketInput);
-    if (unchokeMsg.getMessageId() != TorrentConstants.UNCHOKE_ID) {
-      throw new RuntimeException(
-        "Expected unchoke message, got: " + unchokeMsg.getMessageId()
-      );
-    }
-    long pieceLength = getPieceLength(torrent, pieceIndex);
-    int numBlocks = (int) Math.ceil(
-      (double) pieceLength / TorrentConstants.BLOCK_SIZE
-    );
-    byte[] pieceData = new byte[(int) pieceLength];
-    int offset = 0;
-    for (int blockIndex = 0; blockIndex < numBlocks; blockIndex++) {
-      int blockLength = (int) Math.min(
-        TorrentConstants.BLOCK_SIZE,
-        pieceLength - offset
-      );
-      byte[] requestPayload = createRequestPayload(
-        pieceIndex,
-        offset,
-        blockLength
-      );
-      sendMessageToPeer(
-        socketOutput,
-        TorrentConstants.REQUEST_ID,
-        requestPayload
-      );
-      PeerMessage pieceMsg = readMessageFromPeer(socketInput);
-      if (pieceMsg.getMessageId() != TorrentConstants.PIECE_ID) {
-        throw new RuntimeException(
-          "Expected piece message, got: " + pieceMsg.getMessageId()
-        );
-      }
-      System.arraycopy(
-        pieceMsg.getPayload(),
-        8,
-        pieceData,
-        offset,
-        blockLength
-      );
-      offset += blockLength;
-    }
-    return pieceData;
-  }
-
-  private static PeerMessage readMessageFromPeer(DataInputStream socketInput)
-    throws IOException {
-    int length = socketInput.readInt();
-    if (length == 0) {
-      return new PeerMessage(length, (byte) 0, new byte[0]);
-    }
-    byte messageId = socketInput.readByte();
-    byte[] payload = new byte[length - 1];
-    socketInput.readFully(payload);
-    return new PeerMessage(length, messageId, payload);
-  }
-
-  private static void sendMessageToPeer(
-    DataOutputStream socketOutput,
-    byte messageId,
-    byte[] payload
-  ) throws IOException {
-    ByteBuffer buffer = ByteBuffer.allocate(
-      TorrentConstants.MESSAGE_LENGTH_SIZE +
-      TorrentConstants.MESSAGE_ID_SIZE +
-      payload.length
-    );
-    buffer.putInt(TorrentConstants.MESSAGE_ID_SIZE + payload.length);
-    buffer.put(messageId);
-    buffer.put(payload);
-    socketOutput.write(buffer.array());
-    socketOutput.flush();
-  }
-
-  private static byte[] createRequestPayload(int index, int begin, int length) {
-    ByteBuffer buffer = ByteBuffer.allocate(12);
-    buffer.putInt(index);
-    buffer.putInt(begin);
-    buffer.putInt(length);
-    return buffer.array();
-  }
-
-  private static long getPieceLength(Torrent torrent, int pieceIndex) {
+  static long getPieceLength(Torrent torrent, int pieceIndex) {
     long totalLength = torrent.getTotalLength();
-    int pieceLength = torrent.getPieceLength();
-    if (pieceIndex * pieceLength + pieceLength > totalLength) {
-      return totalLength - (pieceIndex * pieceLength);
-    }
-    return pieceLength;
+    long pieceStart = (long) pieceIndex * torrent.getPieceLength();
+    return Math.min(torrent.getPieceLength(), totalLength - pieceStart);
   }
 }
@@ -0,0 +1,113 @@
+package com.torring.service;
+
+import com.torring.model.TorrentPriority;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TorrentShare {
+
+  private final SessionManager manager;
+  private final int pieceLength;
+  volatile TorrentPriority priority;
+  // Guarded by the session manager's lock
+  int connections;
+  int connectionWaiters;
+  long inFlightBytes;
+  int memoryWaiters;
+  private long nextReceiveAt;
+  // Every block received, including ones that later fail their hash
+  private final AtomicLong receivedBytes = new AtomicLong(0);
+
+  TorrentShare(
+    SessionManager manager,
+    int pieceLength,
+    TorrentPriority priority
+  ) {
+    this.manager = manager;
+    this.pieceLength = pieceLength;
+    this.priority = priority;
+  }
+
+  public TorrentPriority getPriority() {
+    return priority;
+  }
+
+  public void setPriority(TorrentPriority priority) {
+    manager.changePriority(this, priority);
+  }
+
+  public TorrentMetrics getMetrics() {
+    return manager.getMetrics();
+  }
+
+  public int getPieceLength() {
+    return pieceLength;
+  }
+
+  public long getReceivedBytes() {
+    return receivedBytes.get();
+  }
+
+  public void received(int bytes) {
+    receivedBytes.addAndGet(bytes);
+  }
+
+  public void activate() {
+    manager.activate(this);
+  }
+
+  public void deactivate() {
+    manager.deactivate(this);
+  }
+
+  public void acquireConnection() throws InterruptedException {
+    manager.acquireConnection(this);
+  }
+
+  public boolean tryAcquireConnection() {
+    return manager.tryAcquireConnection(this);
+  }
+
+  public void releaseConnection() {
+    manager.releaseConnection(this);
+  }
+
+  public void acquireHalfOpen() throws InterruptedException {
+    manager.acquireHalfOpen();
+  }
+
+  public void releaseHalfOpen() {
+    manager.releaseHalfOpen();
+  }
+
+  public void acquireMemory(long bytes) throws InterruptedException {
+    manager.acquireMemory(this, bytes);
+  }
+
+  public boolean tryAcquireMemory(long bytes) {
+    return manager.tryAcquireMemory(this, bytes);
+  }
+
+  public void releaseMemory(long bytes) {
+    manager.releaseMemory(this, bytes);
+  }
+
+  public void throttle(int bytes) throws InterruptedException {
+    long rate = manager.downloadRateFor(this);
+    if (rate <= 0) {
+      return;
+    }
+    long delay;
+    synchronized (this) {
+      long now = System.nanoTime();
+      // Up to a second of unused allowance carries over as burst
+      nextReceiveAt =
+        Math.max(nextReceiveAt, now - TimeUnit.SECONDS.toNanos(1)) +
+        bytes * TimeUnit.SECONDS.toNanos(1) / rate;
+      delay = nextReceiveAt - now;
+    }
+    if (delay > 0) {
+      TimeUnit.NANOSECONDS.sleep(delay);
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package com.torring.service;
+
+import com.torring.model.FileSegment;
+import com.torring.model.Torrent;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+public class TorrentStorage implements Closeable {
+
+  private final Torrent torrent;
+  private final PieceFileMapper mapper;
+  private final FileChannel[] channels;
+  // Reads of files we haven't written yet must not create or resize them
+  private final FileChannel[] readOnlyChannels;
+
+  public TorrentStorage(Torrent torrent, Path downloadDir) {
+    this.torrent = torrent;
+    this.mapper = new PieceFileMapper(torrent, downloadDir);
+    this.channels = new FileChannel[mapper.getFileCount()];
+    this.readOnlyChannels = new FileChannel[mapper.getFileCount()];
+  }
+
+  public PieceFileMapper getMapper() {
+    return mapper;
+  }
+
+  public boolean hasExistingData() {
+    for (int i = 0; i < mapper.getFileCount(); i++) {
+      Path path = mapper.getFilePath(i);
+      if (mapper.getFileLength(i) > 0 && Files.exists(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // A piece lands as one contiguous range in each file it spans, so there is
+  // nothing to gather within a file. Gathering writes also go through the
+  // channel's shared position, which verifier threads writing pieces of the
+  // same file at once would race on, so each file gets one positional write.
+  public void writePiece(int pieceIndex, byte[] piece) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(piece);
+    List<FileSegment> segments = mapper.mapPiece(pieceIndex, piece.length);
+    for (FileSegment segment : segments) {
+      // Each segment is a view over the piece buffer, so nothing is copied
+      ByteBuffer slice = buffer.slice(buffer.position(), segment.getLength());
+      long position = segment.getFileOffset();
+      FileChannel channel = channel(segment.getFileIndex());
+      while (slice.hasRemaining()) {
+        position += channel.write(slice, position);
+      }
+      buffer.position(buffer.position() + segment.getLength());
+    }
+  }
+
+  public void readPiece(int pieceIndex, ByteBuffer buffer) throws IOException {
+    read((long) pieceIndex * torrent.getPieceLength(), buffer);
+  }
+
+  public void read(long offset, ByteBuffer buffer) throws IOException {
+    List<FileSegment> segments = mapper.mapRange(offset, buffer.remaining());
+    for (FileSegment segment : segments) {
+      ByteBuffer slice = buffer.slice(buffer.position(), segment.getLength());
+      long position = segment.getFileOffset();
+      FileChannel channel = readChannel(segment.getFileIndex());
+      while (slice.hasRemaining()) {
+        int read = channel.read(slice, position);
+        if (read < 0) {
+          throw new EOFException(
+            "Unexpected end of " + mapper.getFilePath(segment.getFileIndex())
+          );
+        }
+        position += read;
+      }
+      buffer.position(buffer.position() + segment.getLength());
+    }
+  }
+
+  public void transferTo(
+    List<FileSegment> segments,
+    WritableByteChannel target
+  ) throws IOException {
+    for (FileSegment segment : segments) {
+      long position = segment.getFileOffset();
+      long remaining = segment.getLength();
+      FileChannel channel = readChannel(segment.getFileIndex());
+      // File to socket inside the kernel where the platform supports it
+      while (remaining > 0) {
+        long sent = channel.transferTo(position, remaining, target);
+        if (sent == 0 && position >= channel.size()) {
+          throw new EOFException(
+            "Unexpected end of " + mapper.getFilePath(segment.getFileIndex())
+          );
+        }
+        position += sent;
+        remaining -= sent;
+      }
+    }
+  }
+
+  public synchronized void flush() throws IOException {
+    for (int i = 0; i < channels.length; i++) {
+      if (channels[i] != null) {
+        channel(i).force(false);
+      } else if (mapper.getFileLength(i) == 0) {
+        // Empty files never receive a piece, so create them on completion
+        channel(i);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    IOException failure = null;
+    for (FileChannel[] openChannels : List.of(channels, readOnlyChannels)) {
+      for (int i = 0; i < openChannels.length; i++) {
+        if (openChannels[i] == null) {
+          continue;
+        }
+        try {
+          openChannels[i].close();
+        } catch (IOException e) {
+          failure = e;
+        }
+        openChannels[i] = null;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private synchronized FileChannel channel(int fileIndex) throws IOException {
+    FileChannel channel = channels[fileIndex];
+    // Interrupting a writer closes the channel under it, so reopen
+    if (channel != null && channel.isOpen()) {
+      return channel;
+    }
+    Path path = mapper.getFilePath(fileIndex);
+    if (path.getParent() != null) {
+      Files.createDirectories(path.getParent());
+    }
+    channel =
+      FileChannel.open(
+        path,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE
+      );
+    preallocate(channel, mapper.getFileLength(fileIndex));
+    channels[fileIndex] = channel;
+    return channel;
+  }
+
+  private synchronized FileChannel readChannel(int fileIndex)
+    throws IOException {
+    if (channels[fileIndex] != null) {
+      return channel(fileIndex);
+    }
+    if (
+      readOnlyChannels[fileIndex] == null ||
+      !readOnlyChannels[fileIndex].isOpen()
+    ) {
+      Path path = mapper.getFilePath(fileIndex);
+      if (!Files.exists(path)) {
+        throw new NoSuchFileException(path.toString());
+      }
+      readOnlyChannels[fileIndex] =
+        FileChannel.open(path, StandardOpenOption.READ);
+    }
+    return readOnlyChannels[fileIndex];
+  }
+
+  private static void preallocate(FileChannel channel, long length)
+    throws IOException {
+    if (channel.size() > length) {
+      channel.truncate(length);
+    } else if (channel.size() < length && length > 0) {
+      // Sizing the file up front lets pieces land at any offset
+      channel.write(ByteBuffer.wrap(new byte[1]), length - 1);
+    }
+  }
+}
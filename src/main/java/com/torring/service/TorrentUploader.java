@@ -0,0 +1,196 @@
+package com.torring.service;
+
+import com.torring.model.Torrent;
+import com.torring.util.TorrentConstants;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TorrentUploader {
+
+  private final Torrent torrent;
+  private final TorrentStorage storage;
+  private final PiecePicker piecePicker;
+  private final int uploadSlots;
+  private final AtomicLong uploaded = new AtomicLong(0);
+  private final Set<PeerSession> sessions = ConcurrentHashMap.newKeySet();
+  // Byte totals at the last rechoke, so peers are ranked on recent transfer
+  private final Map<PeerSession, Long> lastTotals = new HashMap<>();
+  private PeerSession optimistic;
+  private long optimisticSince;
+
+  public TorrentUploader(
+    Torrent torrent,
+    TorrentStorage storage,
+    PiecePicker piecePicker,
+    int uploadSlots
+  ) {
+    this.torrent = torrent;
+    this.storage = storage;
+    this.piecePicker = piecePicker;
+    this.uploadSlots = uploadSlots;
+  }
+
+  public TorrentStorage getStorage() {
+    return storage;
+  }
+
+  public long getUploaded() {
+    return uploaded.get();
+  }
+
+  public void register(PeerSession session) {
+    sessions.add(session);
+  }
+
+  public synchronized void unregister(PeerSession session) {
+    sessions.remove(session);
+    lastTotals.remove(session);
+    if (session == optimistic) {
+      optimistic = null;
+    }
+    if (!session.isChoking()) {
+      fillFreeSlots();
+    }
+  }
+
+  public boolean canServe(int pieceIndex, int begin, int length) {
+    if (
+      pieceIndex < 0 ||
+      pieceIndex >= piecePicker.getNumPieces() ||
+      begin < 0 ||
+      length <= 0 ||
+      length > TorrentConstants.MAX_REQUEST_LENGTH
+    ) {
+      return false;
+    }
+    return (
+      (long) begin + length <=
+        TorrentService.getPieceLength(torrent, pieceIndex) &&
+      piecePicker.isCompleted(pieceIndex)
+    );
+  }
+
+  public void uploaded(int length) {
+    uploaded.addAndGet(length);
+  }
+
+  public void broadcastHave(int pieceIndex) {
+    boolean complete = piecePicker.isComplete();
+    for (PeerSession session : sessions) {
+      session.sendHave(pieceIndex);
+      if (complete) {
+        session.notInterested();
+      }
+    }
+  }
+
+  public synchronized void interestChanged(PeerSession session) {
+    if (!session.isPeerInterested() && !session.isChoking()) {
+      session.choke();
+    }
+    fillFreeSlots();
+  }
+
+  public void rechokeLoop() {
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        Thread.sleep(TorrentConstants.RECHOKE_INTERVAL);
+        rechoke();
+        closeStalledWriters();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public synchronized void rechoke() {
+    // Downloading we reciprocate, seeding we favour whoever takes data fastest
+    boolean seeding = piecePicker.isComplete();
+    Map<PeerSession, Long> recent = new HashMap<>();
+    List<PeerSession> interested = new ArrayList<>();
+    for (PeerSession session : sessions) {
+      long total = seeding
+        ? session.getUploadedBytes()
+        : session.getDownloadedBytes();
+      recent.put(session, total - lastTotals.getOrDefault(session, 0L));
+      lastTotals.put(session, total);
+      if (session.isPeerInterested()) {
+        interested.add(session);
+      }
+    }
+    interested.sort(
+      Comparator.comparingLong((PeerSession session) -> recent.get(session))
+        .reversed()
+    );
+    Set<PeerSession> unchoked = new HashSet<>(
+      interested.subList(0, Math.min(uploadSlots - 1, interested.size()))
+    );
+    rotateOptimistic(interested, unchoked);
+    if (optimistic != null) {
+      unchoked.add(optimistic);
+    }
+    for (PeerSession session : sessions) {
+      if (unchoked.contains(session)) {
+        session.unchoke();
+      } else {
+        session.choke();
+      }
+    }
+  }
+
+  private void rotateOptimistic(
+    List<PeerSession> interested,
+    Set<PeerSession> unchoked
+  ) {
+    // One slot rotates at random so new peers get a chance to prove themselves
+    long now = System.currentTimeMillis();
+    if (
+      optimistic != null &&
+      optimistic.isPeerInterested() &&
+      sessions.contains(optimistic) &&
+      now - optimisticSince < TorrentConstants.OPTIMISTIC_UNCHOKE_INTERVAL
+    ) {
+      return;
+    }
+    List<PeerSession> candidates = new ArrayList<>(interested);
+    candidates.removeAll(unchoked);
+    optimistic = candidates.isEmpty()
+      ? null
+      : candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+    optimisticSince = now;
+  }
+
+  private void fillFreeSlots() {
+    int unchokedCount = 0;
+    for (PeerSession session : sessions) {
+      if (!session.isChoking()) {
+        unchokedCount++;
+      }
+    }
+    for (PeerSession session : sessions) {
+      if (unchokedCount >= uploadSlots) {
+        return;
+      }
+      if (session.isChoking() && session.isPeerInterested()) {
+        session.unchoke();
+        unchokedCount++;
+      }
+    }
+  }
+
+  private void closeStalledWriters() {
+    // A peer that stops reading would hold its writer thread forever
+    long now = System.nanoTime();
+    for (PeerSession session : sessions) {
+      session.closeIfWriteStalled(now);
+    }
+  }
+}
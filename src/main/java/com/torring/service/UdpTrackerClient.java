@@ -0,0 +1,306 @@
+package com.torring.service;
+
+import com.torring.model.ScrapeResult;
+import com.torring.util.TorrentConstants;
+import com.torring.util.TorrentUtils;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// BEP 15 tracker client. A connection id is good for a minute, so it is kept
+// per tracker and back to back announces cost one round trip instead of two.
+public class UdpTrackerClient {
+
+  private static final long PROTOCOL_ID = 0x41727101980L;
+  private static final int ACTION_CONNECT = 0;
+  private static final int ACTION_ANNOUNCE = 1;
+  private static final int ACTION_SCRAPE = 2;
+  private static final int ACTION_ERROR = 3;
+  private static final long CONNECTION_ID_TTL_NANOS = TimeUnit.MINUTES.toNanos(
+    1
+  );
+  // Keeps a scrape request and its reply inside a typical MTU
+  private static final int MAX_SCRAPE_HASHES = 74;
+  private static final int MAX_PACKET_SIZE = 8192;
+
+  private final int timeoutMillis;
+  private final int maxRetries;
+  private final int maxWaitMillis;
+  // Lets the tracker recognise us if our address changes
+  private final int key = ThreadLocalRandom.current().nextInt();
+  private final Map<InetSocketAddress, ConnectionId> connectionIds =
+    new ConcurrentHashMap<>();
+
+  private static class ConnectionId {
+
+    private final long id;
+    private final long obtainedAt = System.nanoTime();
+
+    private ConnectionId(long id) {
+      this.id = id;
+    }
+
+    private boolean isExpired() {
+      return System.nanoTime() - obtainedAt >= CONNECTION_ID_TTL_NANOS;
+    }
+  }
+
+  private interface RequestBody {
+    void write(ByteBuffer request);
+  }
+
+  public UdpTrackerClient(
+    int timeoutMillis,
+    int maxRetries,
+    int maxWaitMillis
+  ) {
+    this.timeoutMillis = timeoutMillis;
+    this.maxRetries = maxRetries;
+    this.maxWaitMillis = maxWaitMillis;
+  }
+
+  public List<String> announce(
+    URI tracker,
+    byte[] infoHash,
+    int port,
+    long uploaded,
+    long downloaded,
+    long left,
+    String event
+  ) throws IOException {
+    byte[] peerId = TorrentConstants.PEER_ID.getBytes(
+      StandardCharsets.ISO_8859_1
+    );
+    ByteBuffer response = send(
+      resolve(tracker),
+      ACTION_ANNOUNCE,
+      82,
+      request ->
+        request
+          .put(infoHash)
+          .put(peerId)
+          .putLong(downloaded)
+          .putLong(left)
+          .putLong(uploaded)
+          .putInt(eventId(event))
+          // Zero tells the tracker to use the address the packet came from
+          .putInt(0)
+          .putInt(key)
+          .putInt(-1)
+          .putShort((short) port)
+    );
+    // Interval, leechers and seeders come before the peers
+    if (response.remaining() < 12) {
+      throw new IOException("Short announce response from " + tracker);
+    }
+    response.position(response.position() + 12);
+    return TorrentUtils.decodeCompactPeers(
+      response.array(),
+      response.position(),
+      response.remaining()
+    );
+  }
+
+  public List<ScrapeResult> scrape(URI tracker, List<byte[]> infoHashes)
+    throws IOException {
+    InetSocketAddress address = resolve(tracker);
+    List<ScrapeResult> results = new ArrayList<>(infoHashes.size());
+    for (int from = 0; from < infoHashes.size(); from += MAX_SCRAPE_HASHES) {
+      List<byte[]> batch = infoHashes.subList(
+        from,
+        Math.min(from + MAX_SCRAPE_HASHES, infoHashes.size())
+      );
+      ByteBuffer response = send(
+        address,
+        ACTION_SCRAPE,
+        batch.size() * 20,
+        request -> batch.forEach(request::put)
+      );
+      if (response.remaining() < batch.size() * 12) {
+        throw new IOException("Short scrape response from " + tracker);
+      }
+      for (byte[] infoHash : batch) {
+        int seeders = response.getInt();
+        int completed = response.getInt();
+        int leechers = response.getInt();
+        results.add(
+          new ScrapeResult(
+            TorrentUtils.bytesToHex(infoHash),
+            seeders,
+            completed,
+            leechers
+          )
+        );
+      }
+    }
+    return results;
+  }
+
+  private ByteBuffer send(
+    InetSocketAddress tracker,
+    int action,
+    int bodyLength,
+    RequestBody body
+  ) throws IOException {
+    byte[] buffer = new byte[MAX_PACKET_SIZE];
+    boolean reconnected = false;
+    long giveUpAt = System.currentTimeMillis() + maxWaitMillis;
+    try (DatagramSocket socket = new DatagramSocket()) {
+      // Only the tracker's replies get through a connected socket
+      socket.connect(tracker);
+      // Each lost packet doubles the wait, as BEP 15 asks of clients
+      for (
+        int attempt = 0;
+        attempt <= maxRetries && System.currentTimeMillis() < giveUpAt;
+        attempt++
+      ) {
+        long timeout = (long) timeoutMillis << attempt;
+        ConnectionId connectionId = connectionIds.get(tracker);
+        boolean cached = connectionId != null && !connectionId.isExpired();
+        if (!cached) {
+          ByteBuffer connect = exchange(
+            socket,
+            buffer,
+            ACTION_CONNECT,
+            PROTOCOL_ID,
+            0,
+            null,
+            Math.min(System.currentTimeMillis() + timeout, giveUpAt)
+          );
+          if (connect == null) {
+            continue;
+          }
+          if (connect.remaining() < 8) {
+            throw new IOException("Short connect response from " + tracker);
+          }
+          connectionId = new ConnectionId(connect.getLong());
+          connectionIds.put(tracker, connectionId);
+        }
+        ByteBuffer response;
+        try {
+          response =
+            exchange(
+              socket,
+              buffer,
+              action,
+              connectionId.id,
+              bodyLength,
+              body,
+              Math.min(System.currentTimeMillis() + timeout, giveUpAt)
+            );
+        } catch (IOException e) {
+          // The tracker may have dropped a cached id early, connect once more
+          if (!cached || reconnected) {
+            throw e;
+          }
+          connectionIds.remove(tracker);
+          reconnected = true;
+          attempt--;
+          continue;
+        }
+        if (response != null) {
+          return response;
+        }
+      }
+    } catch (IOException e) {
+      connectionIds.remove(tracker);
+      throw e;
+    }
+    connectionIds.remove(tracker);
+    throw new SocketTimeoutException("Tracker " + tracker + " did not answer");
+  }
+
+  private ByteBuffer exchange(
+    DatagramSocket socket,
+    byte[] buffer,
+    int action,
+    long connectionId,
+    int bodyLength,
+    RequestBody body,
+    long deadline
+  ) throws IOException {
+    int transactionId = ThreadLocalRandom.current().nextInt();
+    ByteBuffer request = ByteBuffer.allocate(16 + bodyLength);
+    request.putLong(connectionId).putInt(action).putInt(transactionId);
+    if (body != null) {
+      body.write(request);
+    }
+    socket.send(new DatagramPacket(request.array(), request.position()));
+    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+    while (true) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return null;
+      }
+      socket.setSoTimeout((int) remaining);
+      try {
+        socket.receive(packet);
+      } catch (SocketTimeoutException e) {
+        return null;
+      }
+      ByteBuffer response = ByteBuffer.wrap(buffer, 0, packet.getLength());
+      // Late replies to an earlier attempt carry a stale transaction id
+      if (response.remaining() < 8 || response.getInt(4) != transactionId) {
+        continue;
+      }
+      int responseAction = response.getInt();
+      response.getInt();
+      if (responseAction == ACTION_ERROR) {
+        throw new IOException(
+          "Tracker failure: " +
+          new String(
+            buffer,
+            response.position(),
+            response.remaining(),
+            StandardCharsets.UTF_8
+          )
+        );
+      }
+      if (responseAction != action) {
+        throw new IOException(
+          "Unexpected tracker action " + responseAction + " for " + action
+        );
+      }
+      return response;
+    }
+  }
+
+  private static InetSocketAddress resolve(URI tracker)
+    throws UnknownHostException {
+    if (tracker.getHost() == null || tracker.getPort() < 0) {
+      throw new IllegalArgumentException("Invalid UDP tracker " + tracker);
+    }
+    InetSocketAddress address = new InetSocketAddress(
+      tracker.getHost(),
+      tracker.getPort()
+    );
+    if (address.isUnresolved()) {
+      throw new UnknownHostException(tracker.getHost());
+    }
+    return address;
+  }
+
+  private static int eventId(String event) {
+    if (event == null) {
+      return 0;
+    }
+    return switch (event) {
+      case "completed" -> 1;
+      case "started" -> 2;
+      case "stopped" -> 3;
+      default -> 0;
+    };
+  }
+}
@@ -0,0 +1,185 @@
+package com.torring.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Walks bencoded data in place. Callers pull only the values they want and
+// skip the rest, and can take raw byte spans such as the info dictionary.
+public class BencodeReader {
+
+  // Far beyond any real metainfo, low enough that skip() and readValue()
+  // can't recurse off the end of the stack on hostile input
+  private static final int MAX_DEPTH = 64;
+
+  private final byte[] data;
+  private int position;
+  private int depth;
+
+  public BencodeReader(byte[] data) {
+    this.data = data;
+  }
+
+  public byte[] getData() {
+    return data;
+  }
+
+  public int getPosition() {
+    return position;
+  }
+
+  public void beginDictionary() {
+    expect('d');
+    enter();
+  }
+
+  public void beginList() {
+    expect('l');
+    enter();
+  }
+
+  public boolean hasNext() {
+    return peek() != 'e';
+  }
+
+  public void end() {
+    expect('e');
+    depth--;
+  }
+
+  public String readKey() {
+    return readString();
+  }
+
+  public String readString() {
+    int length = readLength();
+    String value = new String(
+      data,
+      position,
+      length,
+      StandardCharsets.ISO_8859_1
+    );
+    position += length;
+    return value;
+  }
+
+  public ByteBuffer readBytes() {
+    // A view over the source, nothing is copied
+    int length = readLength();
+    ByteBuffer bytes = ByteBuffer.wrap(data, position, length).slice();
+    position += length;
+    return bytes;
+  }
+
+  public long readLong() {
+    expect('i');
+    int end = indexOf('e');
+    try {
+      long value = Long.parseLong(
+        new String(data, position, end - position, StandardCharsets.US_ASCII)
+      );
+      position = end + 1;
+      return value;
+    } catch (NumberFormatException e) {
+      throw malformed("invalid integer");
+    }
+  }
+
+  public void skip() {
+    switch (peek()) {
+      case 'i' -> position = indexOf('e') + 1;
+      case 'l', 'd' -> {
+        position++;
+        enter();
+        while (hasNext()) {
+          skip();
+        }
+        end();
+      }
+      default -> {
+        int length = readLength();
+        position += length;
+      }
+    }
+  }
+
+  public Object readValue() {
+    switch (peek()) {
+      case 'i':
+        return readLong();
+      case 'l':
+        List<Object> list = new ArrayList<>();
+        beginList();
+        while (hasNext()) {
+          list.add(readValue());
+        }
+        end();
+        return list;
+      case 'd':
+        Map<String, Object> dictionary = new LinkedHashMap<>();
+        beginDictionary();
+        while (hasNext()) {
+          dictionary.put(readKey(), readValue());
+        }
+        end();
+        return dictionary;
+      default:
+        return readString();
+    }
+  }
+
+  private int readLength() {
+    int colon = indexOf(':');
+    int length = 0;
+    for (int i = position; i < colon; i++) {
+      int digit = data[i] - '0';
+      if (digit < 0 || digit > 9 || length > (Integer.MAX_VALUE - 9) / 10) {
+        throw malformed("invalid string length");
+      }
+      length = length * 10 + digit;
+    }
+    if (colon == position || colon + 1L + length > data.length) {
+      throw malformed("invalid string length");
+    }
+    position = colon + 1;
+    return length;
+  }
+
+  private void enter() {
+    if (++depth > MAX_DEPTH) {
+      throw malformed("nested too deeply");
+    }
+  }
+
+  private int peek() {
+    if (position >= data.length) {
+      throw malformed("unexpected end of data");
+    }
+    return data[position];
+  }
+
+  private void expect(char token) {
+    if (peek() != token) {
+      throw malformed("expected '" + token + "'");
+    }
+    position++;
+  }
+
+  private int indexOf(char token) {
+    for (int i = position; i < data.length; i++) {
+      if (data[i] == token) {
+        return i;
+      }
+    }
+    throw malformed("missing '" + token + "'");
+  }
+
+  private IllegalArgumentException malformed(String reason) {
+    return new IllegalArgumentException(
+      "Malformed bencode at offset " + position + ": " + reason
+    );
+  }
+}
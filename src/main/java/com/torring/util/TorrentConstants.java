@@ -12,21 +12,74 @@ public class TorrentConstants {
     "-MY0001-" + TorrentUtils.randomString(12);
   public static final int PORT = 6881;
   public static final int HANDSHAKE_LENGTH = 68;
-  // public static final int CONNECTION_TIMEOUT = 10000;
-  public static final String DOWNLOAD_PIECE_DIR_PATH =
-    "D:/torringDownloads/temp/";
+  // BEP 6 Fast Extension, bit 0x04 of the last reserved handshake byte
+  public static final int FAST_EXTENSION_RESERVED_BYTE = 27;
+  public static final byte FAST_EXTENSION_FLAG = 0x04;
+  public static final int CONNECTION_TIMEOUT = 10000;
+  public static final int READ_TIMEOUT = 30000;
+  public static final int WRITE_TIMEOUT = 30000;
+  // BEP 15 doubles the wait after each lost packet. Its 15 second start
+  // would keep a dead tracker from falling back to the next for minutes.
+  public static final int DEFAULT_UDP_TRACKER_TIMEOUT_SECONDS = 5;
+  public static final int DEFAULT_UDP_TRACKER_MAX_RETRIES = 2;
+  public static final int DEFAULT_UDP_TRACKER_MAX_WAIT_SECONDS = 20;
+  public static final int KEEP_ALIVE_INTERVAL = 90000;
   public static final String DOWNLOAD_FILE_DIR_PATH = "D:/torringDownloads/";
   public static final String TORRENT_FILE_DIR_PATH =
     "D:/torringDownloads/torrent-files";
-  // public static final int MAX_RETRIES = 3;
-  public static final int NUM_WORKERS = 5;
-  public static final int TIMEOUT_SECONDS = 30;
+  public static final String RESUME_DIR_NAME = ".resume";
+  public static final int DEFAULT_RESUME_CHECKPOINT_SECONDS = 5;
+  public static final int STOP_TIMEOUT_SECONDS = 5;
+  public static final int PROGRESS_TICK_MILLIS = 250;
+  public static final int PROGRESS_RATE_WINDOW_MILLIS = 2000;
+  public static final int WEBSOCKET_SEND_TIME_LIMIT = 5000;
+  public static final int WEBSOCKET_BUFFER_SIZE_LIMIT = 512 * 1024;
+  public static final int DEFAULT_RECHECK_READ_AHEAD_MEGABYTES = 16;
+  public static final int DEFAULT_METADATA_CACHE_MEGABYTES = 64;
+  public static final int DEFAULT_FINISHED_JOB_RETENTION_MINUTES = 60;
+  public static final int DEFAULT_MAX_FINISHED_JOBS = 100;
+  public static final int VERIFY_QUEUE_LENGTH = 16;
+  public static final int MAX_RETRIES = 3;
+  public static final int MAX_RETRY_BACKOFF = 30000;
+  public static final int MAX_PEER_ERRORS = 8;
+  public static final double HASH_FAILURE_BAN_LIMIT = 2.0;
+  public static final int SNUB_TIMEOUT = 15000;
+  public static final int SNUB_CHECK_INTERVAL = 5000;
+  public static final int DEFAULT_MAX_PEER_CONNECTIONS = 200;
+  public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 500;
+  public static final int DEFAULT_MAX_HALF_OPEN_CONNECTIONS = 32;
+  public static final int IDLE_POLL_INTERVAL = 500;
+  public static final int DEFAULT_LISTEN_BACKLOG = 64;
+  public static final int DEFAULT_MAX_INBOUND_CONNECTIONS = 50;
+  public static final int DEFAULT_UPLOAD_SLOTS = 4;
+  public static final int RECHOKE_INTERVAL = 10000;
+  public static final int OPTIMISTIC_UNCHOKE_INTERVAL = 30000;
+  public static final int MAX_REQUEST_LENGTH = 128 * 1024;
   public static final int BLOCK_SIZE = 16 * 1024;
+  public static final int DEFAULT_MAX_OUTSTANDING_REQUESTS = 250;
+  public static final int INITIAL_REQUEST_WINDOW = 8;
+  public static final int MIN_REQUEST_WINDOW = 4;
+  public static final int MAX_OUTSTANDING_REQUESTS_LIMIT = 250;
+  public static final int DEFAULT_MAX_IN_FLIGHT_MEGABYTES = 256;
   public static final int MESSAGE_LENGTH_SIZE = 4;
   public static final int MESSAGE_ID_SIZE = 1;
+  public static final int MAX_MESSAGE_LENGTH = 1024 * 1024;
+  public static final int WIRE_READ_BUFFER_SIZE = 64 * 1024;
+  public static final int WIRE_WRITE_BUFFER_SIZE = 8 * 1024;
+  public static final int MAX_POOLED_WIRE_BUFFERS = 256;
+  public static final int KEEP_ALIVE_ID = -1;
+  public static final byte CHOKE_ID = 0;
+  public static final byte HAVE_ID = 4;
   public static final byte BITFIELD_ID = 5;
   public static final byte INTERESTED_ID = 2;
+  public static final byte NOT_INTERESTED_ID = 3;
   public static final byte UNCHOKE_ID = 1;
   public static final byte REQUEST_ID = 6;
   public static final byte PIECE_ID = 7;
+  public static final byte CANCEL_ID = 8;
+  public static final byte SUGGEST_PIECE_ID = 0x0D;
+  public static final byte HAVE_ALL_ID = 0x0E;
+  public static final byte HAVE_NONE_ID = 0x0F;
+  public static final byte REJECT_REQUEST_ID = 0x10;
+  public static final byte ALLOWED_FAST_ID = 0x11;
 }
@@ -2,8 +2,12 @@ package com.torring.util;
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -12,6 +16,13 @@ public class TorrentUtils {
 
   public static final int LEFT_SIZE = 999;
 
+  private static final HexFormat HEX = HexFormat.of();
+
+  // Cloning skips the provider lookup MessageDigest.getInstance does
+  private static final MessageDigest SHA1 = newDigest("SHA-1");
+  private static final ThreadLocal<MessageDigest> sha1Digests =
+    ThreadLocal.withInitial(TorrentUtils::newSha1);
+
   public static String randomString(int length) {
     String chars =
       "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
@@ -23,12 +34,34 @@ public class TorrentUtils {
     return sb.toString();
   }
 
-  public static String bytesToHex(byte[] bytes) {
-    StringBuilder hex = new StringBuilder(bytes.length * 2);
-    for (byte b : bytes) {
-      hex.append(String.format("%02x", b & 0xff));
+  public static MessageDigest newSha1() {
+    try {
+      return (MessageDigest) SHA1.clone();
+    } catch (CloneNotSupportedException e) {
+      return newDigest("SHA-1");
     }
-    return hex.toString();
+  }
+
+  public static MessageDigest sha1() {
+    MessageDigest digest = sha1Digests.get();
+    digest.reset();
+    return digest;
+  }
+
+  private static MessageDigest newDigest(String algorithm) {
+    try {
+      return MessageDigest.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public static String bytesToHex(byte[] bytes) {
+    return HEX.formatHex(bytes);
+  }
+
+  public static String bytesToHex(byte[] bytes, int offset, int length) {
+    return HEX.formatHex(bytes, offset, offset + length);
   }
 
   public static byte[] getPieces(Map<String, Object> info) {
@@ -54,24 +87,44 @@ public class TorrentUtils {
   }
 
   public static List<String> getHashedPiecesList(Map<String, Object> info) {
-    List<byte[]> piecesList = getPiecesList(info);
-    List<String> hashedPiecesList = new ArrayList<>();
+    byte[] pieces = getPieces(info);
+    List<String> hashedPiecesList = new ArrayList<>(pieces.length / 20);
+    for (int i = 0; i + 20 <= pieces.length; i += 20) {
+      hashedPiecesList.add(bytesToHex(pieces, i, 20));
+    }
+    return hashedPiecesList;
+  }
 
-    for (byte[] piece : piecesList) {
-      StringBuilder hexString = new StringBuilder();
-      for (byte b : piece) {
-        hexString.append(String.format("%02x", b));
+  public static BitSet bitfieldToBitSet(byte[] bitfield, int numPieces) {
+    BitSet pieces = new BitSet(numPieces);
+    for (int i = 0; i < numPieces && (i >> 3) < bitfield.length; i++) {
+      if ((bitfield[i >> 3] & (0x80 >> (i & 7))) != 0) {
+        pieces.set(i);
       }
-      hashedPiecesList.add(hexString.toString());
     }
+    return pieces;
+  }
 
-    return hashedPiecesList;
+  public static byte[] bitSetToBitfield(BitSet pieces, int numPieces) {
+    byte[] bitfield = new byte[(numPieces + 7) / 8];
+    for (
+      int i = pieces.nextSetBit(0);
+      i >= 0 && i < numPieces;
+      i = pieces.nextSetBit(i + 1)
+    ) {
+      bitfield[i >> 3] |= (byte) (0x80 >> (i & 7));
+    }
+    return bitfield;
   }
 
   public static String buildTrackerUrl(
     String announceUrl,
     byte[] infoHash,
-    long fileLength
+    int port,
+    long uploaded,
+    long downloaded,
+    long left,
+    String event
   ) throws Exception {
     StringBuilder url = new StringBuilder(announceUrl);
     url
@@ -87,14 +140,37 @@ public class TorrentUtils {
       .append(
         URLEncoder.encode(TorrentConstants.PEER_ID, StandardCharsets.UTF_8)
       );
-    url.append("&port=").append(TorrentConstants.PORT);
-    url.append("&uploaded=0");
-    url.append("&downloaded=0");
-    url.append("&left=").append(fileLength);
+    url.append("&port=").append(port);
+    url.append("&uploaded=").append(uploaded);
+    url.append("&downloaded=").append(downloaded);
+    url.append("&left=").append(left);
     url.append("&compact=1");
+    if (event != null) {
+      url.append("&event=").append(event);
+    }
     return url.toString();
   }
 
+  public static List<String> decodeCompactPeers(
+    byte[] data,
+    int offset,
+    int length
+  ) {
+    List<String> peers = new ArrayList<>(length / 6);
+    for (int i = offset; i + 6 <= offset + length; i += 6) {
+      String ip = String.format(
+        "%d.%d.%d.%d",
+        data[i] & 0xFF,
+        data[i + 1] & 0xFF,
+        data[i + 2] & 0xFF,
+        data[i + 3] & 0xFF
+      );
+      int port = (data[i + 4] & 0xFF) << 8 | (data[i + 5] & 0xFF);
+      peers.add(ip + ":" + port);
+    }
+    return peers;
+  }
+
   public static String getFileNameWithoutExtension(String fileName) {
     int lastIndex = fileName.lastIndexOf('.');
     return (lastIndex == -1) ? fileName : fileName.substring(0, lastIndex);
@@ -1,14 +1,18 @@
 package com.torring.util;
 
+import jakarta.annotation.PreDestroy;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 @Component
@@ -18,11 +22,23 @@ public class TorrentWebSocketHandler extends TextWebSocketHandler {
     TorrentWebSocketHandler.class
   );
 
-  private final Set<WebSocketSession> sessions = new HashSet<>();
+  private final Map<String, WebSocketSession> sessions =
+    new ConcurrentHashMap<>();
+  private final ExecutorService sendExecutor =
+    Executors.newVirtualThreadPerTaskExecutor();
 
   @Override
   public void afterConnectionEstablished(WebSocketSession session) {
-    sessions.add(session);
+    // Slow clients lose their oldest messages, stuck ones get disconnected
+    sessions.put(
+      session.getId(),
+      new ConcurrentWebSocketSessionDecorator(
+        session,
+        TorrentConstants.WEBSOCKET_SEND_TIME_LIMIT,
+        TorrentConstants.WEBSOCKET_BUFFER_SIZE_LIMIT,
+        ConcurrentWebSocketSessionDecorator.OverflowStrategy.DROP
+      )
+    );
     logger.info("New WebSocket connection established: " + session.getId());
   }
 
@@ -39,15 +55,40 @@ public class TorrentWebSocketHandler extends TextWebSocketHandler {
     WebSocketSession session,
     CloseStatus status
   ) {
-    sessions.remove(session);
+    sessions.remove(session.getId());
     logger.info("WebSocket connection closed: " + session.getId());
   }
 
-  public void sendMessageToAll(String message) throws IOException {
+  public void sendMessageToAll(String message) {
     TextMessage textMessage = new TextMessage(message);
-    for (WebSocketSession session : sessions) {
+    for (WebSocketSession session : sessions.values()) {
       if (session.isOpen()) {
-        session.sendMessage(textMessage);
+        // The decorator buffers while another send is in flight, so these
+        // return at once unless this thread ends up doing the flush
+        sendExecutor.execute(() -> send(session, textMessage));
+      }
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    sendExecutor.shutdownNow();
+  }
+
+  private void send(WebSocketSession session, TextMessage message) {
+    try {
+      session.sendMessage(message);
+    } catch (IOException | RuntimeException e) {
+      logger.warn(
+        "Dropping WebSocket session {}: {}",
+        session.getId(),
+        e.getMessage()
+      );
+      sessions.remove(session.getId());
+      try {
+        session.close(CloseStatus.SESSION_NOT_RELIABLE);
+      } catch (IOException closeFailure) {
+        // Already gone
       }
     }
   }
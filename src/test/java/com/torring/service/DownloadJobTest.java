@@ -0,0 +1,88 @@
+package com.torring.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.torring.config.TorrentProperties;
+import com.torring.model.DownloadJobState;
+import com.torring.model.Torrent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Pause and resume must never leave two runs starting the same download
+class DownloadJobTest {
+
+  @TempDir
+  Path dir;
+
+  private final ExecutorService executor =
+    Executors.newVirtualThreadPerTaskExecutor();
+
+  @AfterEach
+  void closeExecutor() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void rejectsPauseWhileChecking() throws Exception {
+    DownloadJob job = job();
+    job.transition(DownloadJobState.QUEUED, DownloadJobState.CHECKING);
+    assertThrows(IllegalStateException.class, job::pause);
+    assertEquals(DownloadJobState.CHECKING, job.getState());
+  }
+
+  @Test
+  void rejectsResumeUntilEarlierRunEnds() throws Exception {
+    DownloadJob job = job();
+    ExecutorService firstRun = Executors.newSingleThreadExecutor();
+    CountDownLatch announcing = new CountDownLatch(1);
+    job.submit(
+      firstRun,
+      () -> {
+        try {
+          announcing.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    );
+    job.pause();
+    // The first run would pass its own start check once we are queued again
+    assertThrows(
+      IllegalStateException.class,
+      () -> job.resume(executor, () -> {})
+    );
+    assertEquals(DownloadJobState.PAUSED, job.getState());
+    announcing.countDown();
+    firstRun.shutdown();
+    firstRun.awaitTermination(5, TimeUnit.SECONDS);
+    job.resume(executor, () -> {});
+    assertEquals(DownloadJobState.QUEUED, job.getState());
+  }
+
+  private DownloadJob job() throws Exception {
+    Torrent torrent = TorrentFixtures.singleFile("job.bin", 16 * 1024, 65536);
+    SessionManager sessionManager = new SessionManager(
+      new TorrentMetrics(new SimpleMeterRegistry()),
+      1,
+      1,
+      1 << 20,
+      0
+    );
+    TorrentDownload download = new TorrentDownload(
+      torrent,
+      new TorrentProperties(),
+      dir,
+      sessionManager,
+      (completed, pieceIndex, peer) -> {}
+    );
+    return new DownloadJob("job", download, null);
+  }
+}
@@ -0,0 +1,127 @@
+package com.torring.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Snub and ban bookkeeping; the snub timeout itself runs in PeerSession
+class PeerScoreboardTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private PeerScoreboard scoreboard;
+
+  @BeforeEach
+  void createScoreboard() throws Exception {
+    scoreboard =
+      new PeerScoreboard(TorrentFixtures.singleFile("scores", 1024, 4096));
+  }
+
+  @Test
+  void snubsOnceUntilTheNextBlock() {
+    PeerScore score = scoreboard.get("10.0.0.1:6881");
+    scoreboard.snubbed(score);
+    scoreboard.snubbed(score);
+    assertTrue(score.isSnubbed());
+    assertEquals(1, scoreboard.getSnubCount());
+    assertEquals(0, score.getScore());
+    assertFalse(scoreboard.isFavoured(score));
+    score.blockReceived(1024, System.nanoTime());
+    assertFalse(score.isSnubbed());
+    scoreboard.snubbed(score);
+    assertEquals(2, scoreboard.getSnubCount());
+  }
+
+  @Test
+  void bansAfterTwoHashFailures() {
+    PeerScore score = scoreboard.get("10.0.0.1:6881");
+    scoreboard.hashFailed(Set.of(score));
+    assertFalse(score.isBanned());
+    scoreboard.hashFailed(Set.of(score));
+    assertTrue(score.isBanned());
+    assertTrue(scoreboard.isBanned("10.0.0.1:6881"));
+    // Inbound peers reconnect from a new port, the whole host is out
+    assertTrue(scoreboard.isBannedHost("10.0.0.1"));
+    assertEquals(1, scoreboard.getBanCount());
+    scoreboard.hashFailed(Set.of(score));
+    assertEquals(1, scoreboard.getBanCount());
+  }
+
+  @Test
+  void countsConcurrentBansOnce() throws Exception {
+    // Verifier threads report failed pieces from the same peer in parallel
+    for (int round = 0; round < 50; round++) {
+      PeerScore score = scoreboard.get("10.0.1." + round + ":6881");
+      CountDownLatch go = new CountDownLatch(1);
+      List<Thread> threads = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        threads.add(
+          Thread
+            .ofPlatform()
+            .start(() -> {
+              try {
+                go.await();
+              } catch (InterruptedException e) {
+                return;
+              }
+              scoreboard.hashFailed(Set.of(score));
+            })
+        );
+      }
+      go.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertTrue(score.isBanned());
+      assertEquals(round + 1, scoreboard.getBanCount());
+    }
+  }
+
+  @Test
+  void splitsBlameBetweenContributors() {
+    PeerScore first = scoreboard.get("10.0.0.1:6881");
+    PeerScore second = scoreboard.get("10.0.0.2:6881");
+    Set<PeerScore> both = Set.of(first, second);
+    for (int i = 0; i < 3; i++) {
+      scoreboard.hashFailed(both);
+    }
+    assertEquals(1.5, first.getHashFailureBlame(), 1e-9);
+    assertFalse(first.isBanned());
+    assertFalse(second.isBanned());
+    scoreboard.hashFailed(both);
+    assertTrue(first.isBanned());
+    assertTrue(second.isBanned());
+    assertEquals(2, scoreboard.getBanCount());
+    assertFalse(scoreboard.isBannedHost("10.0.0.3"));
+  }
+
+  @Test
+  void favoursPeersAboveHalfTheMedian() {
+    PeerScore fast = delivering("10.0.0.1:6881", 4 << 20);
+    PeerScore median = delivering("10.0.0.2:6881", 1 << 20);
+    PeerScore slow = delivering("10.0.0.3:6881", 64 << 10);
+    assertTrue(scoreboard.isFavoured(fast));
+    assertTrue(scoreboard.isFavoured(median));
+    assertFalse(scoreboard.isFavoured(slow));
+  }
+
+  // Delivers the bytes over one full rate window that ends in the future,
+  // so the rate holds still for the rest of the test
+  private PeerScore delivering(String peer, int bytes) {
+    PeerScore score = scoreboard.get(peer);
+    long now = System.nanoTime();
+    score.blockReceived(0, now + 10 * SECOND);
+    score.blockReceived(bytes, now + 11 * SECOND);
+    score.blockReceived(0, now + 13 * SECOND);
+    assertTrue(score.getScore() > 0);
+    return score;
+  }
+}
@@ -0,0 +1,93 @@
+package com.torring.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.torring.util.TorrentConstants;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+// Fixed-size messages must carry exactly their payload, anything else
+// would be read out of the message that follows
+class PeerWireCodecTest {
+
+  @Test
+  void readsWellFormedMessages() throws IOException {
+    ByteBuffer wire = ByteBuffer
+      .allocate(64)
+      .putInt(5)
+      .put(TorrentConstants.HAVE_ID)
+      .putInt(7)
+      .putInt(13)
+      .put(TorrentConstants.REQUEST_ID)
+      .putInt(1)
+      .putInt(0)
+      .putInt(16384)
+      .putInt(9)
+      .put(TorrentConstants.PIECE_ID)
+      .putInt(2)
+      .putInt(0);
+    try (PeerWireCodec codec = codec(wire)) {
+      assertEquals(TorrentConstants.HAVE_ID, codec.readMessage());
+      assertEquals(7, codec.getPayloadInt(0));
+      assertEquals(TorrentConstants.REQUEST_ID, codec.readMessage());
+      assertEquals(16384, codec.getPayloadInt(8));
+      // An empty block is odd but well formed
+      assertEquals(TorrentConstants.PIECE_ID, codec.readMessage());
+      assertEquals(8, codec.getPayloadLength());
+    }
+  }
+
+  @Test
+  void rejectsShortFixedSizeMessages() throws IOException {
+    byte[] ids = {
+      TorrentConstants.HAVE_ID,
+      TorrentConstants.REQUEST_ID,
+      TorrentConstants.REJECT_REQUEST_ID,
+      TorrentConstants.ALLOWED_FAST_ID,
+      TorrentConstants.SUGGEST_PIECE_ID,
+    };
+    for (byte id : ids) {
+      // Two bytes of payload, then a keep-alive to read past the end into
+      ByteBuffer wire = ByteBuffer
+        .allocate(16)
+        .putInt(3)
+        .put(id)
+        .putShort((short) 1)
+        .putInt(0);
+      try (PeerWireCodec codec = codec(wire)) {
+        assertThrows(IOException.class, codec::readMessage, "Message " + id);
+      }
+    }
+  }
+
+  @Test
+  void rejectsPayloadOnEmptyMessagesAndShortPieces() throws IOException {
+    ByteBuffer unchoke = ByteBuffer
+      .allocate(16)
+      .putInt(2)
+      .put(TorrentConstants.UNCHOKE_ID)
+      .put((byte) 0);
+    try (PeerWireCodec codec = codec(unchoke)) {
+      assertThrows(IOException.class, codec::readMessage);
+    }
+    ByteBuffer piece = ByteBuffer
+      .allocate(16)
+      .putInt(5)
+      .put(TorrentConstants.PIECE_ID)
+      .putInt(2);
+    try (PeerWireCodec codec = codec(piece)) {
+      assertThrows(IOException.class, codec::readMessage);
+    }
+  }
+
+  private static PeerWireCodec codec(ByteBuffer wire) {
+    return new PeerWireCodec(
+      new ByteArrayInputStream(wire.array(), 0, wire.position()),
+      new ByteArrayOutputStream()
+    );
+  }
+}
@@ -0,0 +1,96 @@
+package com.torring.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.torring.model.FileSegment;
+import com.torring.model.Torrent;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+// Pieces that straddle file boundaries in multi-file torrents
+class PieceFileMapperTest {
+
+  private static final Path DIR = Path.of("downloads");
+
+  @Test
+  void splitsPiecesAcrossFiles() throws Exception {
+    Torrent torrent = TorrentFixtures.multiFile("multi", 128, 100, 50, 200);
+    PieceFileMapper mapper = new PieceFileMapper(torrent, DIR);
+    assertEquals(
+      List.of("0@0+100", "1@0+28"),
+      describe(mapper.mapPiece(0, 128))
+    );
+    assertEquals(
+      List.of("1@28+22", "2@0+106"),
+      describe(mapper.mapPiece(1, 128))
+    );
+    // The last piece is short and ends with the last file
+    assertEquals(List.of("2@106+94"), describe(mapper.mapPiece(2, 94)));
+  }
+
+  @Test
+  void mapsRangeInsideOneFile() throws Exception {
+    Torrent torrent = TorrentFixtures.multiFile("multi", 128, 100, 50, 200);
+    PieceFileMapper mapper = new PieceFileMapper(torrent, DIR);
+    assertEquals(List.of("2@10+16"), describe(mapper.mapRange(160, 16)));
+  }
+
+  @Test
+  void skipsEmptyFilesOnABoundary() throws Exception {
+    Torrent torrent = TorrentFixtures.multiFile("empty", 64, 64, 0, 0, 64);
+    PieceFileMapper mapper = new PieceFileMapper(torrent, DIR);
+    assertEquals(List.of("3@0+64"), describe(mapper.mapPiece(1, 64)));
+    assertEquals(
+      List.of("0@32+32", "3@0+32"),
+      describe(mapper.mapRange(32, 64))
+    );
+  }
+
+  @Test
+  void rejectsRangePastTheEnd() throws Exception {
+    Torrent torrent = TorrentFixtures.multiFile("multi", 128, 100, 50, 200);
+    PieceFileMapper mapper = new PieceFileMapper(torrent, DIR);
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> mapper.mapRange(340, 16)
+    );
+  }
+
+  @Test
+  void placesFilesUnderTheTorrentName() throws Exception {
+    PieceFileMapper multi = new PieceFileMapper(
+      TorrentFixtures.multiFile("multi", 128, 100, 50),
+      DIR
+    );
+    assertEquals(2, multi.getFileCount());
+    assertEquals(
+      DIR.resolve("multi").resolve("dir").resolve("file1"),
+      multi.getFilePath(1)
+    );
+    assertEquals(50, multi.getFileLength(1));
+    PieceFileMapper single = new PieceFileMapper(
+      TorrentFixtures.singleFile("single.bin", 128, 300),
+      DIR
+    );
+    assertEquals(1, single.getFileCount());
+    assertEquals(DIR.resolve("single.bin"), single.getFilePath(0));
+    assertEquals(List.of("0@256+44"), describe(single.mapPiece(2, 44)));
+  }
+
+  private static List<String> describe(List<FileSegment> segments) {
+    List<String> described = new ArrayList<>();
+    for (FileSegment segment : segments) {
+      described.add(
+        segment.getFileIndex() +
+        "@" +
+        segment.getFileOffset() +
+        "+" +
+        segment.getLength()
+      );
+    }
+    return described;
+  }
+}
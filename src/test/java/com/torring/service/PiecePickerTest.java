@@ -0,0 +1,130 @@
+package com.torring.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.torring.model.Torrent;
+import com.torring.model.TorrentPriority;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.BitSet;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+// Rarest-first ordering and the switch into endgame
+class PiecePickerTest {
+
+  private static final int PIECE_LENGTH = 16 * 1024;
+
+  @Test
+  void picksRarestPiecesFirst() throws Exception {
+    PiecePicker picker = picker(8);
+    BitSet all = pieces(0, 8);
+    picker.addPeer(all);
+    picker.addPeer(pieces(0, 6));
+    picker.addPeer(pieces(0, 3));
+    // Pieces 6-7 are on one peer, 3-5 on two and 0-2 on all three
+    assertEquals(6, pick(picker, all));
+    assertEquals(7, pick(picker, all));
+    assertEquals(3, pick(picker, all));
+    // HAVE makes piece 4 as common as 0-2
+    picker.peerHas(4);
+    assertEquals(5, pick(picker, all));
+    assertEquals(0, pick(picker, all));
+  }
+
+  @Test
+  void picksOnlyPiecesThePeerHas() throws Exception {
+    PiecePicker picker = picker(8);
+    picker.addPeer(pieces(0, 8));
+    BitSet peer = pieces(2, 4);
+    picker.addPeer(peer);
+    assertEquals(2, pick(picker, peer));
+    assertEquals(3, pick(picker, peer));
+    assertNull(picker.pick(peer, false, false));
+  }
+
+  @Test
+  void picksRarestFromSparsePeer() throws Exception {
+    PiecePicker picker = picker(32);
+    picker.addPeer(pieces(0, 32));
+    picker.addPeer(pieces(20, 21));
+    BitSet sparse = new BitSet();
+    sparse.set(5);
+    sparse.set(20);
+    // Few enough pieces to scan the peer's own bitfield instead
+    assertEquals(5, pick(picker, sparse));
+    assertEquals(20, pick(picker, sparse));
+  }
+
+  @Test
+  void entersEndgameOnceEveryPieceIsRequested() throws Exception {
+    PiecePicker picker = picker(3);
+    BitSet all = pieces(0, 3);
+    picker.addPeer(all);
+    PartialPiece first = picker.pick(all, false, false);
+    picker.pick(all, false, false);
+    assertFalse(picker.isEndgame());
+    assertNull(picker.pickEndgame(all, Set.of()));
+    PartialPiece last = picker.pick(all, false, false);
+    assertTrue(picker.isEndgame());
+    // Another session gets a piece it isn't already working on
+    PartialPiece duplicate = picker.pickEndgame(
+      all,
+      Set.of(first.getIndex(), last.getIndex())
+    );
+    assertNotNull(duplicate);
+    assertFalse(
+      duplicate.getIndex() == first.getIndex() ||
+      duplicate.getIndex() == last.getIndex()
+    );
+    // An untouched piece handed back leaves endgame again
+    picker.release(last);
+    assertFalse(picker.isEndgame());
+    assertEquals(last.getIndex(), pick(picker, all));
+  }
+
+  @Test
+  void skipsCompletedPieces() throws Exception {
+    PiecePicker picker = picker(4);
+    BitSet all = pieces(0, 4);
+    picker.addPeer(all);
+    picker.markCompleted(pieces(0, 3));
+    assertEquals(3, pick(picker, all));
+    assertNull(picker.pick(all, false, false));
+    assertEquals(0, picker.getPendingCount());
+  }
+
+  private static int pick(PiecePicker picker, BitSet peerPieces)
+    throws InterruptedException {
+    return picker.pick(peerPieces, false, false).getIndex();
+  }
+
+  private static BitSet pieces(int from, int to) {
+    BitSet pieces = new BitSet();
+    pieces.set(from, to);
+    return pieces;
+  }
+
+  private static PiecePicker picker(int numPieces) throws Exception {
+    Torrent torrent = TorrentFixtures.singleFile(
+      "picker.bin",
+      PIECE_LENGTH,
+      (long) numPieces * PIECE_LENGTH
+    );
+    SessionManager sessionManager = new SessionManager(
+      new TorrentMetrics(new SimpleMeterRegistry()),
+      1,
+      1,
+      (long) numPieces * PIECE_LENGTH,
+      0
+    );
+    TorrentShare share = sessionManager.register(
+      torrent,
+      TorrentPriority.NORMAL
+    );
+    return new PiecePicker(torrent, numPieces, share);
+  }
+}
@@ -0,0 +1,120 @@
+package com.torring.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.torring.util.TorrentConstants;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+// Window sizing against a simulated peer that serves blocks one at a time
+// at a fixed rate behind a fixed round trip
+class RequestWindowTest {
+
+  private static final int BLOCK = TorrentConstants.BLOCK_SIZE;
+
+  private static class Link {
+
+    private final RequestWindow window;
+    private final long halfRttNanos;
+    private final Queue<long[]> inFlight = new ArrayDeque<>();
+    private long blockNanos;
+    private long peerFreeAt;
+    private long now = TimeUnit.SECONDS.toNanos(1);
+    private long deliveredBytes;
+    private int peakSize;
+
+    private Link(int maxSize, double bytesPerSecond, long rttMillis) {
+      this.window =
+        new RequestWindow(maxSize, new SimpleMeterRegistry().summary("w"));
+      this.halfRttNanos = TimeUnit.MILLISECONDS.toNanos(rttMillis) / 2;
+      setRate(bytesPerSecond);
+    }
+
+    private void setRate(double bytesPerSecond) {
+      blockNanos = (long) (BLOCK / bytesPerSecond * 1e9);
+    }
+
+    // Returns the delivered rate over the run, in bytes per second
+    private double run(long seconds) {
+      long startedAt = now;
+      long startBytes = deliveredBytes;
+      long end = now + TimeUnit.SECONDS.toNanos(seconds);
+      while (now < end) {
+        peakSize = Math.max(peakSize, window.getSize());
+        while (inFlight.size() < window.getSize()) {
+          long doneAt =
+            Math.max(now + halfRttNanos, peerFreeAt) + blockNanos;
+          peerFreeAt = doneAt;
+          inFlight.add(new long[] { now, doneAt + halfRttNanos });
+        }
+        long[] request = inFlight.remove();
+        now = request[1];
+        deliveredBytes += BLOCK;
+        window.blockReceived(BLOCK, now - request[0], inFlight.size(), now);
+      }
+      return (deliveredBytes - startBytes) * 1e9 / (now - startedAt);
+    }
+  }
+
+  @Test
+  void growsToFillTheBandwidthDelayProduct() {
+    // 10 MB/s over 100ms is 64 blocks in flight
+    Link link = new Link(1000, 10 << 20, 100);
+    link.run(10);
+    double rate = link.run(10);
+    int size = link.window.getSize();
+    assertTrue(size >= 64 && size <= 3 * 64, "window " + size);
+    assertTrue(rate > 0.9 * (10 << 20), "rate " + rate);
+    // The probe drains our queue, so the RTT seen is the path's own
+    assertEquals(
+      100,
+      TimeUnit.NANOSECONDS.toMillis(link.window.getMinRttNanos()),
+      10
+    );
+  }
+
+  @Test
+  void neverExceedsTheConfiguredMaximum() {
+    Link link = new Link(32, 10 << 20, 100);
+    link.run(10);
+    assertEquals(32, link.window.getSize());
+  }
+
+  @Test
+  void honoursAMaximumBelowTheFloor() {
+    // Startup, probes and BDP resizes all pass through the floor
+    Link link = new Link(2, 10 << 20, 100);
+    link.run(30);
+    assertEquals(2, link.peakSize);
+    assertEquals(2, link.window.getSize());
+  }
+
+  @Test
+  void staysSmallOnASlowPeer() {
+    // 64 KB/s over 50ms is a fifth of a block in flight
+    Link link = new Link(1000, 64 << 10, 50);
+    double rate = link.run(30);
+    assertTrue(
+      link.window.getSize() <= 2 * TorrentConstants.MIN_REQUEST_WINDOW,
+      "window " + link.window.getSize()
+    );
+    assertTrue(rate > 0.9 * (64 << 10), "rate " + rate);
+  }
+
+  @Test
+  void shrinksWhenThePeerSlowsDown() {
+    Link link = new Link(1000, 10 << 20, 100);
+    link.run(20);
+    int fastSize = link.window.getSize();
+    link.setRate(1 << 20);
+    link.run(20);
+    int slowSize = link.window.getSize();
+    // 1 MB/s over 100ms is 6.4 blocks, doubled plus slack stays under 20
+    assertTrue(slowSize < fastSize / 4, fastSize + " -> " + slowSize);
+    assertTrue(slowSize <= 20, "window " + slowSize);
+  }
+}
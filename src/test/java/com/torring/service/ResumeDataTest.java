@@ -0,0 +1,127 @@
+package com.torring.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.torring.model.Torrent;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// A damaged checkpoint must read as "no checkpoint", never as wrong pieces
+class ResumeDataTest {
+
+  private static final int NUM_PIECES = 10;
+
+  @TempDir
+  Path dir;
+
+  private Torrent torrent;
+  private PieceFileMapper mapper;
+  private Path resumeDir;
+  private Path resumeFile;
+
+  @BeforeEach
+  void writeFiles() throws Exception {
+    torrent = TorrentFixtures.multiFile("resume", 1024, 4096, 6144);
+    mapper = new PieceFileMapper(torrent, dir);
+    for (int i = 0; i < mapper.getFileCount(); i++) {
+      Files.createDirectories(mapper.getFilePath(i).getParent());
+      Files.write(
+        mapper.getFilePath(i),
+        new byte[(int) mapper.getFileLength(i)]
+      );
+    }
+    resumeDir = dir.resolve(".resume");
+    resumeFile = resumeDir.resolve(torrent.getInfoHashHex() + ".resume");
+  }
+
+  @Test
+  void loadsWhatWasSaved() throws Exception {
+    BitSet completed = completed(0, 3, 9);
+    resumeData().save(completed);
+    assertEquals(completed, resumeData().load());
+  }
+
+  @Test
+  void missingFileMeansNoCheckpoint() {
+    assertNull(resumeData().load());
+  }
+
+  @Test
+  void rejectsEveryTruncation() throws Exception {
+    resumeData().save(completed(1, 2));
+    byte[] saved = Files.readAllBytes(resumeFile);
+    for (int length = 0; length < saved.length; length++) {
+      Files.write(resumeFile, Arrays.copyOf(saved, length));
+      assertNull(resumeData().load(), "truncated to " + length);
+    }
+  }
+
+  @Test
+  void rejectsCorruptHeader() throws Exception {
+    resumeData().save(completed(1, 2));
+    byte[] saved = Files.readAllBytes(resumeFile);
+    saved[0] ^= 0xFF;
+    Files.write(resumeFile, saved);
+    assertNull(resumeData().load());
+    Files.write(resumeFile, "not a checkpoint".getBytes());
+    assertNull(resumeData().load());
+  }
+
+  @Test
+  void rejectsCheckpointOfAnotherTorrent() throws Exception {
+    resumeData().save(completed(1, 2));
+    Torrent other = TorrentFixtures.multiFile("other", 1024, 4096, 6144);
+    Files.move(
+      resumeFile,
+      resumeDir.resolve(other.getInfoHashHex() + ".resume")
+    );
+    assertNull(new ResumeData(other, mapper, NUM_PIECES, resumeDir).load());
+  }
+
+  @Test
+  void rejectsFilesChangedSinceTheCheckpoint() throws Exception {
+    resumeData().save(completed(1, 2));
+    Files.write(mapper.getFilePath(1), new byte[100]);
+    assertNull(resumeData().load());
+  }
+
+  @Test
+  void replacesCheckpointThroughTempFile() throws Exception {
+    resumeData().save(completed(1));
+    // A crash mid-save leaves only a half written temp file behind
+    Path tempFile = resumeDir.resolve(resumeFile.getFileName() + ".tmp");
+    Files.write(tempFile, new byte[] { 1, 2, 3 });
+    assertEquals(completed(1), resumeData().load());
+    resumeData().save(completed(1, 5));
+    assertFalse(Files.exists(tempFile));
+    assertEquals(completed(1, 5), resumeData().load());
+    assertEquals(List.of(resumeFile.getFileName()), list(resumeDir));
+  }
+
+  private ResumeData resumeData() {
+    return new ResumeData(torrent, mapper, NUM_PIECES, resumeDir);
+  }
+
+  private static BitSet completed(int... pieces) {
+    BitSet completed = new BitSet();
+    for (int piece : pieces) {
+      completed.set(piece);
+    }
+    return completed;
+  }
+
+  private static List<Path> list(Path dir) throws Exception {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.map(Path::getFileName).toList();
+    }
+  }
+}
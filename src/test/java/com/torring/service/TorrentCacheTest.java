@@ -0,0 +1,75 @@
+package com.torring.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.torring.model.Torrent;
+import org.junit.jupiter.api.Test;
+
+// Weighted LRU over parsed torrents, looked up by info hash or upload digest
+class TorrentCacheTest {
+
+  // Base weight plus one 20 byte piece hash
+  private static final long ONE_PIECE_WEIGHT = 1024 + 20;
+
+  @Test
+  void findsTorrentByInfoHashAndUploadDigest() throws Exception {
+    TorrentCache cache = new TorrentCache(1 << 20);
+    Torrent torrent = torrent("a");
+    cache.put("digest-a", torrent);
+    assertSame(torrent, cache.get(torrent.getInfoHashHex()));
+    assertSame(torrent, cache.getByUploadDigest("digest-a"));
+    assertNull(cache.getByUploadDigest("digest-b"));
+    assertEquals(ONE_PIECE_WEIGHT, cache.getWeight());
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedByWeight() throws Exception {
+    TorrentCache cache = new TorrentCache(2 * ONE_PIECE_WEIGHT);
+    Torrent a = torrent("a");
+    Torrent b = torrent("b");
+    Torrent c = torrent("c");
+    cache.put("digest-a", a);
+    cache.put("digest-b", b);
+    cache.get(a.getInfoHashHex());
+    cache.put("digest-c", c);
+    assertEquals(2, cache.size());
+    assertEquals(2 * ONE_PIECE_WEIGHT, cache.getWeight());
+    assertSame(a, cache.get(a.getInfoHashHex()));
+    assertNull(cache.get(b.getInfoHashHex()));
+    // Evicting a torrent drops its upload digests with it
+    assertNull(cache.getByUploadDigest("digest-b"));
+    assertSame(c, cache.getByUploadDigest("digest-c"));
+  }
+
+  @Test
+  void skipsTorrentHeavierThanTheWholeCache() throws Exception {
+    TorrentCache cache = new TorrentCache(ONE_PIECE_WEIGHT);
+    Torrent small = torrent("small");
+    cache.put("digest-small", small);
+    Torrent large = TorrentFixtures.singleFile("large", 16 * 1024, 1 << 20);
+    cache.put("digest-large", large);
+    assertNull(cache.get(large.getInfoHashHex()));
+    assertNull(cache.getByUploadDigest("digest-large"));
+    assertSame(small, cache.get(small.getInfoHashHex()));
+  }
+
+  @Test
+  void replacesMetadataUploadedAgain() throws Exception {
+    TorrentCache cache = new TorrentCache(1 << 20);
+    Torrent first = torrent("a");
+    Torrent second = torrent("a");
+    cache.put("digest-first", first);
+    cache.put("digest-second", second);
+    assertEquals(1, cache.size());
+    assertEquals(ONE_PIECE_WEIGHT, cache.getWeight());
+    assertSame(second, cache.get(second.getInfoHashHex()));
+    assertNull(cache.getByUploadDigest("digest-first"));
+    assertSame(second, cache.getByUploadDigest("digest-second"));
+  }
+
+  private static Torrent torrent(String name) throws Exception {
+    return TorrentFixtures.singleFile(name, 16 * 1024, 1000);
+  }
+}
@@ -0,0 +1,61 @@
+package com.torring.service;
+
+import com.torring.model.Torrent;
+import com.torring.util.TorrentConstants;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Metainfo for unit tests, built in memory with all-zero piece hashes
+final class TorrentFixtures {
+
+  private TorrentFixtures() {}
+
+  static Torrent singleFile(String name, int pieceLength, long length)
+    throws Exception {
+    Map<String, Object> info = info(name, pieceLength, length);
+    info.put("length", length);
+    return torrent(info);
+  }
+
+  static Torrent multiFile(String name, int pieceLength, long... fileLengths)
+    throws Exception {
+    long totalLength = 0;
+    List<Map<String, Object>> files = new ArrayList<>();
+    for (int i = 0; i < fileLengths.length; i++) {
+      Map<String, Object> file = new LinkedHashMap<>();
+      file.put("length", fileLengths[i]);
+      file.put("path", List.of("dir", "file" + i));
+      files.add(file);
+      totalLength += fileLengths[i];
+    }
+    Map<String, Object> info = info(name, pieceLength, totalLength);
+    info.put("files", files);
+    return torrent(info);
+  }
+
+  private static Map<String, Object> info(
+    String name,
+    int pieceLength,
+    long totalLength
+  ) {
+    int numPieces = (int) ((totalLength + pieceLength - 1) / pieceLength);
+    Map<String, Object> info = new LinkedHashMap<>();
+    info.put("name", name);
+    info.put("piece length", (long) pieceLength);
+    info.put(
+      "pieces",
+      new String(new byte[numPieces * 20], StandardCharsets.ISO_8859_1)
+    );
+    return info;
+  }
+
+  private static Torrent torrent(Map<String, Object> info) throws Exception {
+    Map<String, Object> metadata = new LinkedHashMap<>();
+    metadata.put("announce", "http://127.0.0.1/announce");
+    metadata.put("info", info);
+    return new Torrent(TorrentConstants.bencode.encode(metadata));
+  }
+}
@@ -0,0 +1,243 @@
+package com.torring.swarm;
+
+import com.torring.util.TorrentConstants;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A seeder that speaks the BEP 6 Fast Extension: it announces its pieces
+// with HAVE_ALL or HAVE_NONE plus HAVEs, lets allowed fast pieces through
+// while choking, and rejects what it won't serve instead of dropping it
+public class FakeFastPeer implements Closeable {
+
+  private final SyntheticTorrent torrent;
+  private final byte[] infoHash;
+  private final boolean haveAll;
+  private final Set<Integer> allowedFast;
+  private final long unchokeAfterMillis;
+  // Pieces whose first request is rejected even while unchoked
+  private final Set<Integer> rejectOnce;
+  private final ServerSocket serverSocket;
+  private final Set<Integer> requestedWhileChoked =
+    ConcurrentHashMap.newKeySet();
+  private final AtomicInteger connectionCount = new AtomicInteger(0);
+  private final AtomicInteger blocksSentWhileChoked = new AtomicInteger(0);
+  private final AtomicInteger rejectCount = new AtomicInteger(0);
+  private volatile boolean sawFastExtension;
+
+  public FakeFastPeer(
+    SyntheticTorrent torrent,
+    byte[] infoHash,
+    boolean haveAll,
+    Set<Integer> allowedFast,
+    long unchokeAfterMillis,
+    Set<Integer> rejectOnce
+  ) throws IOException {
+    this.torrent = torrent;
+    this.infoHash = infoHash;
+    this.haveAll = haveAll;
+    this.allowedFast = allowedFast;
+    this.unchokeAfterMillis = unchokeAfterMillis;
+    this.rejectOnce = ConcurrentHashMap.newKeySet();
+    this.rejectOnce.addAll(rejectOnce);
+    this.serverSocket =
+      new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    Thread.ofVirtual().name("fast-peer-accept").start(this::acceptLoop);
+  }
+
+  public String getAddress() {
+    return "127.0.0.1:" + serverSocket.getLocalPort();
+  }
+
+  public boolean sawFastExtension() {
+    return sawFastExtension;
+  }
+
+  public Set<Integer> getRequestedWhileChoked() {
+    return requestedWhileChoked;
+  }
+
+  public int getConnectionCount() {
+    return connectionCount.get();
+  }
+
+  public int getBlocksSentWhileChoked() {
+    return blocksSentWhileChoked.get();
+  }
+
+  public int getRejectCount() {
+    return rejectCount.get();
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+  }
+
+  private void acceptLoop() {
+    while (!serverSocket.isClosed()) {
+      try {
+        Socket socket = serverSocket.accept();
+        connectionCount.incrementAndGet();
+        Thread
+          .ofVirtual()
+          .name("fast-peer-conn")
+          .start(() -> {
+            try (socket) {
+              new Connection(socket).run();
+            } catch (IOException e) {
+              // Either side hanging up ends the connection
+            }
+          });
+      } catch (IOException e) {
+        return;
+      }
+    }
+  }
+
+  private class Connection {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private volatile boolean choked = true;
+
+    private Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.in =
+        new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      this.out =
+        new DataOutputStream(
+          new BufferedOutputStream(socket.getOutputStream())
+        );
+    }
+
+    private void run() throws IOException {
+      byte[] handshake = new byte[68];
+      in.readFully(handshake);
+      if (!Arrays.equals(handshake, 28, 48, infoHash, 0, 20)) {
+        return;
+      }
+      sawFastExtension =
+        (handshake[TorrentConstants.FAST_EXTENSION_RESERVED_BYTE] &
+          TorrentConstants.FAST_EXTENSION_FLAG) !=
+        0;
+      synchronized (out) {
+        out.write(handshake, 0, 20);
+        byte[] reserved = new byte[8];
+        reserved[7] = TorrentConstants.FAST_EXTENSION_FLAG;
+        out.write(reserved);
+        out.write(handshake, 28, 20);
+        out.write("-FF0001-fakefastpeer".getBytes(StandardCharsets.US_ASCII));
+        announcePieces();
+        for (int pieceIndex : allowedFast) {
+          sendIntMessage(TorrentConstants.ALLOWED_FAST_ID, pieceIndex);
+        }
+        out.flush();
+      }
+      Thread.ofVirtual().name("fast-peer-unchoke").start(this::unchokeLater);
+      while (!socket.isClosed()) {
+        int length = in.readInt();
+        if (length == 0) {
+          continue;
+        }
+        byte id = in.readByte();
+        byte[] payload = new byte[length - 1];
+        in.readFully(payload);
+        if (id == TorrentConstants.REQUEST_ID) {
+          request(readInt(payload, 0), readInt(payload, 4), readInt(payload, 8));
+        }
+      }
+    }
+
+    private void announcePieces() throws IOException {
+      if (haveAll) {
+        sendMessage(TorrentConstants.HAVE_ALL_ID);
+        return;
+      }
+      // Starts out empty, then learns every piece one HAVE at a time
+      sendMessage(TorrentConstants.HAVE_NONE_ID);
+      for (int i = 0; i < torrent.getNumPieces(); i++) {
+        sendIntMessage(TorrentConstants.HAVE_ID, i);
+      }
+    }
+
+    private void unchokeLater() {
+      try {
+        Thread.sleep(unchokeAfterMillis);
+        // Flipped first, so any request after the UNCHOKE sees it
+        choked = false;
+        synchronized (out) {
+          sendMessage(TorrentConstants.UNCHOKE_ID);
+          out.flush();
+        }
+      } catch (InterruptedException | IOException e) {
+        // The connection is gone
+      }
+    }
+
+    private void request(int index, int begin, int length)
+      throws IOException {
+      boolean wasChoked = choked;
+      if (wasChoked) {
+        requestedWhileChoked.add(index);
+      }
+      boolean allowed = allowedFast.contains(index);
+      if ((wasChoked && !allowed) || (!wasChoked && rejectOnce.remove(index))) {
+        rejectCount.incrementAndGet();
+        synchronized (out) {
+          out.writeInt(13);
+          out.write(TorrentConstants.REJECT_REQUEST_ID);
+          out.writeInt(index);
+          out.writeInt(begin);
+          out.writeInt(length);
+          out.flush();
+        }
+        return;
+      }
+      if (wasChoked) {
+        blocksSentWhileChoked.incrementAndGet();
+      }
+      byte[] piece = torrent.piece(index);
+      synchronized (out) {
+        out.writeInt(9 + length);
+        out.write(TorrentConstants.PIECE_ID);
+        out.writeInt(index);
+        out.writeInt(begin);
+        out.write(piece, begin, length);
+        out.flush();
+      }
+    }
+
+    private void sendMessage(byte id) throws IOException {
+      out.writeInt(1);
+      out.write(id);
+    }
+
+    private void sendIntMessage(byte id, int value) throws IOException {
+      out.writeInt(5);
+      out.write(id);
+      out.writeInt(value);
+    }
+  }
+
+  private static int readInt(byte[] bytes, int offset) {
+    return (
+      (bytes[offset] & 0xFF) << 24 |
+      (bytes[offset + 1] & 0xFF) << 16 |
+      (bytes[offset + 2] & 0xFF) << 8 |
+      (bytes[offset + 3] & 0xFF)
+    );
+  }
+}
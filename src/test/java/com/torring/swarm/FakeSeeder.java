@@ -0,0 +1,368 @@
+package com.torring.swarm;
+
+import com.torring.util.TorrentConstants;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A seeder with the whole torrent that speaks just enough of the wire
+// protocol for TorrentDownload, plus whatever faults its behavior asks for
+public class FakeSeeder implements Closeable {
+
+  private static final int PIECE_CACHE_SIZE = 4;
+
+  private final SyntheticTorrent torrent;
+  private final byte[] infoHash;
+  private final SeederBehavior behavior;
+  private final ServerSocket serverSocket;
+  private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+  private final AtomicLong connectionCount = new AtomicLong(0);
+  private final AtomicLong blocksSent = new AtomicLong(0);
+  private final AtomicLong corruptBlocksSent = new AtomicLong(0);
+  private volatile boolean closed;
+
+  public FakeSeeder(
+    SyntheticTorrent torrent,
+    byte[] infoHash,
+    SeederBehavior behavior
+  ) throws IOException {
+    this.torrent = torrent;
+    this.infoHash = infoHash;
+    this.behavior = behavior;
+    this.serverSocket =
+      new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    Thread.ofVirtual().name("seeder-accept").start(this::acceptLoop);
+  }
+
+  public InetSocketAddress getAddress() {
+    return new InetSocketAddress(
+      serverSocket.getInetAddress(),
+      serverSocket.getLocalPort()
+    );
+  }
+
+  public SeederBehavior getBehavior() {
+    return behavior;
+  }
+
+  public long getConnectionCount() {
+    return connectionCount.get();
+  }
+
+  public long getBlocksSent() {
+    return blocksSent.get();
+  }
+
+  public long getCorruptBlocksSent() {
+    return corruptBlocksSent.get();
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    serverSocket.close();
+    for (Socket socket : connections) {
+      socket.close();
+    }
+  }
+
+  private void acceptLoop() {
+    while (!closed) {
+      try {
+        Socket socket = serverSocket.accept();
+        connections.add(socket);
+        connectionCount.incrementAndGet();
+        Thread.ofVirtual().name("seeder-conn").start(() -> serve(socket));
+      } catch (IOException e) {
+        return;
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    try (socket) {
+      new Connection(socket).run();
+    } catch (IOException | InterruptedException e) {
+      // Either side hanging up ends the connection
+    } finally {
+      connections.remove(socket);
+    }
+  }
+
+  private static class BlockRequest implements Delayed {
+
+    private final int index;
+    private final int begin;
+    private final int length;
+    private final long dueAt;
+
+    private BlockRequest(int index, int begin, int length, long dueAt) {
+      this.index = index;
+      this.begin = begin;
+      this.length = length;
+      this.dueAt = dueAt;
+    }
+
+    private boolean matches(int index, int begin, int length) {
+      return (
+        this.index == index && this.begin == begin && this.length == length
+      );
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(dueAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      return Long.compare(dueAt, ((BlockRequest) other).dueAt);
+    }
+  }
+
+  private class Connection {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final DelayQueue<BlockRequest> requests = new DelayQueue<>();
+    private final Map<Integer, byte[]> pieceCache = new LinkedHashMap<>(
+      PIECE_CACHE_SIZE,
+      0.75f,
+      true
+    ) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+        return size() > PIECE_CACHE_SIZE;
+      }
+    };
+    private volatile boolean choked = true;
+    private boolean interested;
+    private long nextSendAt;
+    private int connectionBlocks;
+
+    private Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.in =
+        new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      this.out =
+        new DataOutputStream(
+          new BufferedOutputStream(socket.getOutputStream())
+        );
+    }
+
+    private void run() throws IOException, InterruptedException {
+      byte[] handshake = new byte[68];
+      in.readFully(handshake);
+      if (!Arrays.equals(handshake, 28, 48, infoHash, 0, 20)) {
+        return;
+      }
+      synchronized (out) {
+        // No reserved bits, this seeder only speaks the base protocol
+        out.write(handshake, 0, 20);
+        out.write(new byte[8]);
+        out.write(handshake, 28, 20);
+        out.write("-FS0001-fakeseeder00".getBytes(StandardCharsets.US_ASCII));
+        sendBitfield();
+        out.flush();
+      }
+      while (!socket.isClosed()) {
+        int length = in.readInt();
+        if (length == 0) {
+          continue;
+        }
+        byte id = in.readByte();
+        byte[] payload = new byte[length - 1];
+        in.readFully(payload);
+        switch (id) {
+          case TorrentConstants.INTERESTED_ID -> unchoke();
+          case TorrentConstants.REQUEST_ID -> queue(payload);
+          case TorrentConstants.CANCEL_ID -> cancel(payload);
+          default -> {
+            // Nothing else changes what a seeder sends
+          }
+        }
+      }
+    }
+
+    private void sendBitfield() throws IOException {
+      byte[] bitfield = new byte[(torrent.getNumPieces() + 7) / 8];
+      for (int i = 0; i < torrent.getNumPieces(); i++) {
+        bitfield[i >> 3] |= (byte) (0x80 >> (i & 7));
+      }
+      out.writeInt(1 + bitfield.length);
+      out.write(TorrentConstants.BITFIELD_ID);
+      out.write(bitfield);
+    }
+
+    private void unchoke() throws IOException {
+      if (interested) {
+        return;
+      }
+      interested = true;
+      sendMessage(TorrentConstants.UNCHOKE_ID);
+      choked = false;
+      Thread.ofVirtual().name("seeder-send").start(this::sendLoop);
+      if (behavior.getChokeEveryMillis() > 0) {
+        Thread.ofVirtual().name("seeder-choke").start(this::chokeLoop);
+      }
+    }
+
+    private void queue(byte[] payload) throws IOException {
+      int index = readInt(payload, 0);
+      int begin = readInt(payload, 4);
+      int length = readInt(payload, 8);
+      if (
+        index < 0 ||
+        index >= torrent.getNumPieces() ||
+        begin < 0 ||
+        length <= 0 ||
+        begin + length > torrent.pieceLength(index)
+      ) {
+        socket.close();
+        return;
+      }
+      if (choked) {
+        return;
+      }
+      long dueAt =
+        System.nanoTime() +
+        TimeUnit.MILLISECONDS.toNanos(behavior.getLatencyMillis());
+      requests.add(new BlockRequest(index, begin, length, dueAt));
+    }
+
+    private void cancel(byte[] payload) {
+      int index = readInt(payload, 0);
+      int begin = readInt(payload, 4);
+      int length = readInt(payload, 8);
+      requests.removeIf(request -> request.matches(index, begin, length));
+    }
+
+    private void sendLoop() {
+      try {
+        while (!socket.isClosed()) {
+          BlockRequest request = requests.poll(100, TimeUnit.MILLISECONDS);
+          if (request != null && !choked) {
+            throttle(request.length);
+            sendBlock(request);
+          }
+        }
+      } catch (IOException | InterruptedException e) {
+        closeQuietly();
+      }
+    }
+
+    private void chokeLoop() {
+      try {
+        while (!socket.isClosed()) {
+          Thread.sleep(behavior.getChokeEveryMillis());
+          synchronized (out) {
+            // A choke throws away every request the peer has queued with us
+            choked = true;
+            requests.clear();
+            sendMessage(TorrentConstants.CHOKE_ID);
+          }
+          Thread.sleep(behavior.getChokeForMillis());
+          choked = false;
+          sendMessage(TorrentConstants.UNCHOKE_ID);
+        }
+      } catch (IOException | InterruptedException e) {
+        closeQuietly();
+      }
+    }
+
+    private void throttle(int length) throws InterruptedException {
+      if (behavior.getBytesPerSecond() <= 0) {
+        return;
+      }
+      long now = System.nanoTime();
+      nextSendAt =
+        Math.max(now, nextSendAt) +
+        length * 1_000_000_000L / behavior.getBytesPerSecond();
+      long wait = nextSendAt - now;
+      if (wait > 0) {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      }
+    }
+
+    private void sendBlock(BlockRequest request) throws IOException {
+      byte[] piece = pieceCache.computeIfAbsent(request.index, torrent::piece);
+      byte[] block = piece;
+      int offset = request.begin;
+      if (
+        behavior.getCorruptRate() > 0 &&
+        ThreadLocalRandom.current().nextDouble() < behavior.getCorruptRate()
+      ) {
+        block = Arrays.copyOfRange(piece, offset, offset + request.length);
+        block[ThreadLocalRandom.current().nextInt(request.length)] ^= 0x5A;
+        offset = 0;
+        corruptBlocksSent.incrementAndGet();
+      }
+      synchronized (out) {
+        if (choked) {
+          return;
+        }
+        out.writeInt(9 + request.length);
+        out.write(TorrentConstants.PIECE_ID);
+        out.writeInt(request.index);
+        out.writeInt(request.begin);
+        out.write(block, offset, request.length);
+        // Blocks that are already due go out together in one write
+        BlockRequest next = requests.peek();
+        if (next == null || next.getDelay(TimeUnit.NANOSECONDS) > 0) {
+          out.flush();
+        }
+      }
+      blocksSent.incrementAndGet();
+      if (
+        behavior.getDisconnectAfterBlocks() > 0 &&
+        ++connectionBlocks >= behavior.getDisconnectAfterBlocks()
+      ) {
+        closeQuietly();
+      }
+    }
+
+    private void sendMessage(byte id) throws IOException {
+      synchronized (out) {
+        out.writeInt(1);
+        out.write(id);
+        out.flush();
+      }
+    }
+
+    private void closeQuietly() {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Already gone
+      }
+    }
+  }
+
+  private static int readInt(byte[] bytes, int offset) {
+    return (
+      (bytes[offset] & 0xFF) << 24 |
+      (bytes[offset + 1] & 0xFF) << 16 |
+      (bytes[offset + 2] & 0xFF) << 8 |
+      (bytes[offset + 3] & 0xFF)
+    );
+  }
+}
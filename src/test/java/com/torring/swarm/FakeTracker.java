@@ -0,0 +1,133 @@
+package com.torring.swarm;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.torring.util.TorrentConstants;
+import com.torring.util.TorrentUtils;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Answers buildTrackerUrl-style announces with a compact peer list
+public class FakeTracker implements Closeable {
+
+  private static final int ANNOUNCE_INTERVAL = 1800;
+
+  private final HttpServer server;
+  private final Map<String, List<InetSocketAddress>> swarms =
+    new ConcurrentHashMap<>();
+  private final AtomicInteger announceCount = new AtomicInteger(0);
+  private volatile Map<String, String> lastAnnounce = Map.of();
+
+  public FakeTracker() throws IOException {
+    this.server =
+      HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+        0
+      );
+    server.createContext("/announce", this::announce);
+    server.start();
+  }
+
+  public String getAnnounceUrl() {
+    return (
+      "http://127.0.0.1:" + server.getAddress().getPort() + "/announce"
+    );
+  }
+
+  public void addPeer(byte[] infoHash, InetSocketAddress peer) {
+    swarms
+      .computeIfAbsent(
+        TorrentUtils.bytesToHex(infoHash),
+        hash -> new CopyOnWriteArrayList<>()
+      )
+      .add(peer);
+  }
+
+  public int getAnnounceCount() {
+    return announceCount.get();
+  }
+
+  public Map<String, String> getLastAnnounce() {
+    return lastAnnounce;
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+
+  private void announce(HttpExchange exchange) throws IOException {
+    Map<String, String> params = parseQuery(
+      exchange.getRequestURI().getRawQuery()
+    );
+    announceCount.incrementAndGet();
+    lastAnnounce = params;
+    Map<String, Object> response = new LinkedHashMap<>();
+    byte[] infoHash = params
+      .getOrDefault("info_hash", "")
+      .getBytes(StandardCharsets.ISO_8859_1);
+    List<InetSocketAddress> peers = swarms.get(
+      TorrentUtils.bytesToHex(infoHash)
+    );
+    if (peers == null) {
+      response.put("failure reason", "Unknown info hash");
+    } else {
+      response.put("interval", (long) ANNOUNCE_INTERVAL);
+      response.put(
+        "peers",
+        new String(compactPeers(peers), StandardCharsets.ISO_8859_1)
+      );
+    }
+    byte[] body = TorrentConstants.bencode.encode(response);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain");
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private static byte[] compactPeers(List<InetSocketAddress> peers) {
+    ByteArrayOutputStream compact = new ByteArrayOutputStream();
+    for (InetSocketAddress peer : peers) {
+      compact.writeBytes(peer.getAddress().getAddress());
+      compact.write(peer.getPort() >> 8);
+      compact.write(peer.getPort());
+    }
+    return compact.toByteArray();
+  }
+
+  private static Map<String, String> parseQuery(String query) {
+    Map<String, String> params = new HashMap<>();
+    if (query == null) {
+      return params;
+    }
+    for (String param : query.split("&")) {
+      int separator = param.indexOf('=');
+      if (separator < 0) {
+        continue;
+      }
+      // info_hash is raw bytes, so it has to round-trip through ISO-8859-1
+      params.put(
+        param.substring(0, separator),
+        URLDecoder.decode(
+          param.substring(separator + 1),
+          StandardCharsets.ISO_8859_1
+        )
+      );
+    }
+    return params;
+  }
+}
@@ -0,0 +1,195 @@
+package com.torring.swarm;
+
+import com.torring.util.TorrentUtils;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Answers BEP 15 connect, announce and scrape requests on a loopback port,
+// and can lose packets or forget connection ids on demand
+public class FakeUdpTracker implements Closeable {
+
+  private static final long PROTOCOL_ID = 0x41727101980L;
+  private static final int ANNOUNCE_INTERVAL = 1800;
+
+  private final DatagramSocket socket;
+  private final Map<String, List<InetSocketAddress>> swarms =
+    new ConcurrentHashMap<>();
+  private final Set<Long> connectionIds = ConcurrentHashMap.newKeySet();
+  private final List<Integer> scrapeBatches = new CopyOnWriteArrayList<>();
+  private final AtomicInteger connectCount = new AtomicInteger(0);
+  private final AtomicInteger announceCount = new AtomicInteger(0);
+  private final AtomicInteger packetsToDrop = new AtomicInteger(0);
+  private volatile int lastEvent = -1;
+  private volatile int lastPort = -1;
+
+  public FakeUdpTracker() throws IOException {
+    this.socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    Thread.ofVirtual().name("udp-tracker").start(this::serve);
+  }
+
+  public String getAnnounceUrl() {
+    return "udp://127.0.0.1:" + socket.getLocalPort() + "/announce";
+  }
+
+  public void addPeer(byte[] infoHash, InetSocketAddress peer) {
+    swarms
+      .computeIfAbsent(
+        TorrentUtils.bytesToHex(infoHash),
+        hash -> new CopyOnWriteArrayList<>()
+      )
+      .add(peer);
+  }
+
+  public void dropPackets(int count) {
+    packetsToDrop.set(count);
+  }
+
+  public void forgetConnections() {
+    connectionIds.clear();
+  }
+
+  public int getConnectCount() {
+    return connectCount.get();
+  }
+
+  public int getAnnounceCount() {
+    return announceCount.get();
+  }
+
+  public List<Integer> getScrapeBatches() {
+    return scrapeBatches;
+  }
+
+  public int getLastEvent() {
+    return lastEvent;
+  }
+
+  public int getLastPort() {
+    return lastPort;
+  }
+
+  @Override
+  public void close() {
+    socket.close();
+  }
+
+  private void serve() {
+    byte[] buffer = new byte[2048];
+    while (!socket.isClosed()) {
+      DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+      try {
+        socket.receive(packet);
+        if (packetsToDrop.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+          continue;
+        }
+        ByteBuffer request = ByteBuffer.wrap(buffer, 0, packet.getLength());
+        ByteBuffer response = handle(request);
+        socket.send(
+          new DatagramPacket(
+            response.array(),
+            response.position(),
+            packet.getSocketAddress()
+          )
+        );
+      } catch (IOException e) {
+        return;
+      }
+    }
+  }
+
+  private ByteBuffer handle(ByteBuffer request) {
+    long connectionId = request.getLong();
+    int action = request.getInt();
+    int transactionId = request.getInt();
+    if (action == 0) {
+      if (connectionId != PROTOCOL_ID) {
+        return error(transactionId, "Bad protocol id");
+      }
+      long issued = ThreadLocalRandom.current().nextLong();
+      connectionIds.add(issued);
+      connectCount.incrementAndGet();
+      return ByteBuffer
+        .allocate(16)
+        .putInt(0)
+        .putInt(transactionId)
+        .putLong(issued);
+    }
+    if (!connectionIds.contains(connectionId)) {
+      return error(transactionId, "Connection ID mismatch");
+    }
+    if (action == 1) {
+      return announce(request, transactionId);
+    }
+    if (action == 2) {
+      return scrape(request, transactionId);
+    }
+    return error(transactionId, "Unknown action");
+  }
+
+  private ByteBuffer announce(ByteBuffer request, int transactionId) {
+    announceCount.incrementAndGet();
+    byte[] infoHash = new byte[20];
+    request.get(infoHash);
+    // Peer id, downloaded, left and uploaded
+    request.position(request.position() + 20 + 24);
+    lastEvent = request.getInt();
+    // IP, key and num_want
+    request.position(request.position() + 12);
+    lastPort = request.getShort() & 0xFFFF;
+    List<InetSocketAddress> peers = swarms.getOrDefault(
+      TorrentUtils.bytesToHex(infoHash),
+      List.of()
+    );
+    ByteBuffer response = ByteBuffer.allocate(20 + peers.size() * 6);
+    response
+      .putInt(1)
+      .putInt(transactionId)
+      .putInt(ANNOUNCE_INTERVAL)
+      .putInt(0)
+      .putInt(peers.size());
+    for (InetSocketAddress peer : peers) {
+      response
+        .put(peer.getAddress().getAddress())
+        .putShort((short) peer.getPort());
+    }
+    return response;
+  }
+
+  private ByteBuffer scrape(ByteBuffer request, int transactionId) {
+    int count = request.remaining() / 20;
+    scrapeBatches.add(count);
+    ByteBuffer response = ByteBuffer.allocate(8 + count * 12);
+    response.putInt(2).putInt(transactionId);
+    for (int i = 0; i < count; i++) {
+      byte[] infoHash = new byte[20];
+      request.get(infoHash);
+      int seeders = swarms
+        .getOrDefault(TorrentUtils.bytesToHex(infoHash), List.of())
+        .size();
+      response.putInt(seeders).putInt(i).putInt(0);
+    }
+    return response;
+  }
+
+  private static ByteBuffer error(int transactionId, String message) {
+    byte[] text = message.getBytes(StandardCharsets.UTF_8);
+    return ByteBuffer
+      .allocate(8 + text.length)
+      .putInt(3)
+      .putInt(transactionId)
+      .put(text);
+  }
+}
@@ -0,0 +1,139 @@
+package com.torring.swarm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.torring.config.TorrentProperties;
+import com.torring.model.Torrent;
+import com.torring.service.SessionManager;
+import com.torring.service.TorrentDownload;
+import com.torring.service.TorrentMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// BEP 6 against a single scripted peer: HAVE_ALL and HAVE_NONE, requests
+// served from the allowed fast set while choked, and rejected requests
+class FastExtensionTest {
+
+  private static final long TIMEOUT_SECONDS = 60;
+  // No tracker is contacted, peers are handed to the download directly
+  private static final String ANNOUNCE_URL = "http://127.0.0.1:1/announce";
+
+  @TempDir
+  Path dir;
+
+  private final SyntheticTorrent synthetic = new SyntheticTorrent(
+    "fast.bin",
+    (2 << 20) + 4321,
+    256 * 1024,
+    6
+  );
+
+  @Test
+  void requestsAllowedFastPiecesWhileChoked() throws Exception {
+    Torrent torrent = synthetic.write(dir, ANNOUNCE_URL);
+    try (
+      FakeFastPeer peer = new FakeFastPeer(
+        synthetic,
+        torrent.getInfoHash(),
+        true,
+        Set.of(1, 3),
+        1500,
+        Set.of()
+      )
+    ) {
+      download(torrent, peer);
+      assertTrue(peer.sawFastExtension());
+      assertFalse(peer.getRequestedWhileChoked().isEmpty());
+      assertTrue(Set.of(1, 3).containsAll(peer.getRequestedWhileChoked()));
+      assertTrue(peer.getBlocksSentWhileChoked() > 0);
+      assertEquals(0, peer.getRejectCount());
+    }
+  }
+
+  @Test
+  void rerequestsRejectedBlocks() throws Exception {
+    Torrent torrent = synthetic.write(dir, ANNOUNCE_URL);
+    try (
+      FakeFastPeer peer = new FakeFastPeer(
+        synthetic,
+        torrent.getInfoHash(),
+        true,
+        Set.of(),
+        0,
+        Set.of(0, 5)
+      )
+    ) {
+      download(torrent, peer);
+      assertEquals(2, peer.getRejectCount());
+      // A reject is an answer, not a reason to hang up
+      assertEquals(1, peer.getConnectionCount());
+    }
+  }
+
+  @Test
+  void learnsPiecesAfterHaveNone() throws Exception {
+    Torrent torrent = synthetic.write(dir, ANNOUNCE_URL);
+    try (
+      FakeFastPeer peer = new FakeFastPeer(
+        synthetic,
+        torrent.getInfoHash(),
+        false,
+        Set.of(),
+        0,
+        Set.of()
+      )
+    ) {
+      download(torrent, peer);
+      assertEquals(1, peer.getConnectionCount());
+    }
+  }
+
+  private void download(Torrent torrent, FakeFastPeer peer) throws Exception {
+    TorrentProperties properties = new TorrentProperties();
+    properties.setSeedAfterDownload(false);
+    SessionManager sessionManager = new SessionManager(
+      new TorrentMetrics(new SimpleMeterRegistry()),
+      properties.getMaxTotalConnections(),
+      properties.getMaxHalfOpenConnections(),
+      64L << 20,
+      0
+    );
+    Path downloadDir = dir.resolve("download");
+    TorrentDownload download = new TorrentDownload(
+      torrent,
+      properties,
+      downloadDir,
+      sessionManager,
+      (completed, pieceIndex, from) -> {}
+    );
+    try {
+      download.start(List.of(peer.getAddress()));
+      download.getCompletion().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } finally {
+      download.stop();
+    }
+    assertTrue(download.isComplete());
+    byte[] content = Files.readAllBytes(
+      downloadDir.resolve(synthetic.getName())
+    );
+    assertEquals(synthetic.getTotalLength(), content.length);
+    for (int i = 0; i < synthetic.getNumPieces(); i++) {
+      int from = i * synthetic.getPieceLength();
+      assertArrayEquals(
+        synthetic.piece(i),
+        Arrays.copyOfRange(content, from, from + synthetic.pieceLength(i)),
+        "Piece " + i + " differs"
+      );
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package com.torring.swarm;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.With;
+
+@Getter
+@With
+@AllArgsConstructor
+public class SeederBehavior {
+
+  // Delay between a request arriving and its block going out
+  private final long latencyMillis;
+  // Upload cap for one connection, 0 means unlimited
+  private final long bytesPerSecond;
+  // Choke every so often for a while, dropping whatever was queued
+  private final long chokeEveryMillis;
+  private final long chokeForMillis;
+  // Chance that a block goes out with a flipped byte
+  private final double corruptRate;
+  // Hang up after this many blocks on one connection, 0 means never
+  private final int disconnectAfterBlocks;
+
+  public static SeederBehavior healthy() {
+    return new SeederBehavior(0, 0, 0, 0, 0, 0);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+      "latency=%dms rate=%d/s choke=%d/%dms corrupt=%.3f disconnect=%d",
+      latencyMillis,
+      bytesPerSecond,
+      chokeForMillis,
+      chokeEveryMillis,
+      corruptRate,
+      disconnectAfterBlocks
+    );
+  }
+}
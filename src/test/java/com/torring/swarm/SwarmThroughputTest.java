@@ -0,0 +1,312 @@
+package com.torring.swarm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.torring.config.TorrentProperties;
+import com.torring.model.Torrent;
+import com.torring.service.SessionManager;
+import com.torring.service.TorrentDownload;
+import com.torring.service.TorrentMetrics;
+import com.torring.service.TorrentService;
+import com.torring.service.UdpTrackerClient;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// End-to-end downloads from a loopback tracker and fake seeders. The default
+// size keeps `mvn test` quick, multi-GB runs go through system properties:
+//   mvn test -Dtest=SwarmThroughputTest -Dswarm.size.mb=4096
+class SwarmThroughputTest {
+
+  private static final long SIZE_MB = Long.getLong("swarm.size.mb", 32);
+  private static final int PIECE_KB = Integer.getInteger(
+    "swarm.piece.kb",
+    256
+  );
+  private static final int SEEDERS = Integer.getInteger("swarm.seeders", 4);
+  private static final long TIMEOUT_SECONDS = Long.getLong(
+    "swarm.timeout.seconds",
+    120 + SIZE_MB / 4
+  );
+  private static final long MAX_IN_FLIGHT_BYTES = 256L << 20;
+  private static final int HEAP_SAMPLE_MILLIS = 50;
+  private static final double[] PERCENTILES = { 0.5, 0.99, 0.999 };
+
+  @TempDir
+  Path dir;
+
+  private final List<Closeable> resources = new ArrayList<>();
+
+  @AfterEach
+  void closeSwarm() throws IOException {
+    for (Closeable resource : resources) {
+      resource.close();
+    }
+  }
+
+  @Test
+  void healthySwarm() throws Exception {
+    download(
+      "healthy",
+      Collections.nCopies(SEEDERS, SeederBehavior.healthy())
+    );
+  }
+
+  @Test
+  void slowLinks() throws Exception {
+    SeederBehavior slow = SeederBehavior
+      .healthy()
+      .withLatencyMillis(25)
+      .withBytesPerSecond(8L << 20);
+    download("slow-links", Collections.nCopies(SEEDERS, slow));
+  }
+
+  @Test
+  void faultySwarm() throws Exception {
+    List<SeederBehavior> behaviors = new ArrayList<>();
+    behaviors.add(SeederBehavior.healthy());
+    behaviors.add(SeederBehavior.healthy().withCorruptRate(0.01));
+    behaviors.add(SeederBehavior.healthy().withDisconnectAfterBlocks(64));
+    behaviors.add(
+      SeederBehavior
+        .healthy()
+        .withChokeEveryMillis(400)
+        .withChokeForMillis(150)
+    );
+    behaviors.add(
+      SeederBehavior
+        .healthy()
+        .withLatencyMillis(50)
+        .withBytesPerSecond(2L << 20)
+    );
+    download("faulty", behaviors);
+  }
+
+  private void download(String name, List<SeederBehavior> behaviors)
+    throws Exception {
+    SyntheticTorrent synthetic = new SyntheticTorrent(
+      name + ".bin",
+      // An odd tail exercises the short last piece and block
+      (SIZE_MB << 20) + 12345,
+      PIECE_KB * 1024,
+      name.hashCode()
+    );
+    FakeTracker tracker = new FakeTracker();
+    resources.add(tracker);
+    Torrent torrent = synthetic.write(dir, tracker.getAnnounceUrl());
+    List<FakeSeeder> seeders = new ArrayList<>();
+    for (SeederBehavior behavior : behaviors) {
+      FakeSeeder seeder = new FakeSeeder(
+        synthetic,
+        torrent.getInfoHash(),
+        behavior
+      );
+      resources.add(seeder);
+      seeders.add(seeder);
+      tracker.addPeer(torrent.getInfoHash(), seeder.getAddress());
+    }
+
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    registry.config().meterFilter(percentiles());
+    TorrentMetrics metrics = new TorrentMetrics(registry);
+    TorrentProperties properties = new TorrentProperties();
+    SessionManager sessionManager = new SessionManager(
+      metrics,
+      properties.getMaxTotalConnections(),
+      properties.getMaxHalfOpenConnections(),
+      MAX_IN_FLIGHT_BYTES,
+      0
+    );
+    sessionManager.registerGauges();
+    // Only an HTTP tracker here, the UDP client is never used
+    List<String> peers = TorrentService.getPeersList(
+      new UdpTrackerClient(1000, 0, 1000),
+      torrent
+    );
+    assertEquals(behaviors.size(), peers.size());
+    assertEquals(1, tracker.getAnnounceCount());
+    assertEquals(
+      String.valueOf(synthetic.getTotalLength()),
+      tracker.getLastAnnounce().get("left")
+    );
+
+    HeapSampler heap = new HeapSampler();
+    Path downloadDir = dir.resolve("download");
+    TorrentDownload download = new TorrentDownload(
+      torrent,
+      properties,
+      downloadDir,
+      sessionManager,
+      (completed, pieceIndex, peer) -> {}
+    );
+    long startedAt = System.nanoTime();
+    try {
+      download.start(peers);
+      download.getCompletion().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } finally {
+      download.stop();
+      heap.close();
+    }
+    long elapsedNanos = System.nanoTime() - startedAt;
+
+    assertTrue(download.isComplete());
+    verifyContent(synthetic, downloadDir.resolve(synthetic.getName()));
+    report(name, synthetic, seeders, registry, download, elapsedNanos, heap);
+  }
+
+  private static void verifyContent(SyntheticTorrent synthetic, Path file)
+    throws IOException {
+    try (
+      FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)
+    ) {
+      assertEquals(synthetic.getTotalLength(), channel.size());
+      ByteBuffer buffer = ByteBuffer.allocate(synthetic.getPieceLength());
+      for (int i = 0; i < synthetic.getNumPieces(); i++) {
+        buffer.clear().limit(synthetic.pieceLength(i));
+        long position = (long) i * synthetic.getPieceLength();
+        while (buffer.hasRemaining()) {
+          position += channel.read(buffer, position);
+        }
+        assertArrayEquals(
+          synthetic.piece(i),
+          Arrays.copyOf(buffer.array(), buffer.limit()),
+          "Piece " + i + " differs"
+        );
+      }
+    }
+  }
+
+  private static void report(
+    String name,
+    SyntheticTorrent synthetic,
+    List<FakeSeeder> seeders,
+    SimpleMeterRegistry registry,
+    TorrentDownload download,
+    long elapsedNanos,
+    HeapSampler heap
+  ) {
+    double seconds = elapsedNanos / 1e9;
+    double megabytes = synthetic.getTotalLength() / (double) (1 << 20);
+    HistogramSnapshot rtt = registry
+      .get("torrent.block.rtt")
+      .timer()
+      .takeSnapshot();
+    StringBuilder latencies = new StringBuilder();
+    for (ValueAtPercentile percentile : rtt.percentileValues()) {
+      latencies.append(
+        String.format(
+          " p%s=%.1fms",
+          percentile.percentile() * 100,
+          percentile.value(TimeUnit.MILLISECONDS)
+        )
+      );
+    }
+    System.out.printf(
+      "swarm[%s] %.1f MB in %.2fs = %.1f MB/s, block rtt%s max=%.1fms, " +
+      "hash failures=%d, heap peak=%d MB (+%d MB)\n",
+      name,
+      megabytes,
+      seconds,
+      megabytes / seconds,
+      latencies,
+      rtt.max(TimeUnit.MILLISECONDS),
+      download.getHashFailures(),
+      heap.getPeakBytes() >> 20,
+      (heap.getPeakBytes() - heap.getBaselineBytes()) >> 20
+    );
+    for (FakeSeeder seeder : seeders) {
+      System.out.printf(
+        "  seeder %s [%s] connections=%d blocks=%d corrupt=%d\n",
+        seeder.getAddress(),
+        seeder.getBehavior(),
+        seeder.getConnectionCount(),
+        seeder.getBlocksSent(),
+        seeder.getCorruptBlocksSent()
+      );
+    }
+  }
+
+  private static MeterFilter percentiles() {
+    // The engine's timers only publish histograms, the report wants quantiles
+    return new MeterFilter() {
+      @Override
+      public DistributionStatisticConfig configure(
+        Meter.Id id,
+        DistributionStatisticConfig config
+      ) {
+        return DistributionStatisticConfig
+          .builder()
+          .percentiles(PERCENTILES)
+          .build()
+          .merge(config);
+      }
+    };
+  }
+
+  private static class HeapSampler implements Closeable {
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final AtomicLong peakBytes = new AtomicLong();
+    private final long baselineBytes;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private HeapSampler() {
+      System.gc();
+      this.baselineBytes = usedBytes();
+      this.peakBytes.set(baselineBytes);
+      this.thread = Thread.ofVirtual().name("heap-sampler").start(this::run);
+    }
+
+    private long getBaselineBytes() {
+      return baselineBytes;
+    }
+
+    private long getPeakBytes() {
+      return peakBytes.get();
+    }
+
+    private long usedBytes() {
+      return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private void run() {
+      while (running) {
+        peakBytes.accumulateAndGet(usedBytes(), Math::max);
+        try {
+          Thread.sleep(HEAP_SAMPLE_MILLIS);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      running = false;
+      thread.interrupt();
+    }
+  }
+}
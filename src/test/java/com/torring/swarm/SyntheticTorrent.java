@@ -0,0 +1,98 @@
+package com.torring.swarm;
+
+import com.torring.model.Torrent;
+import com.torring.util.TorrentConstants;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+// Content is derived from the piece index, so multi-GB torrents never have
+// to be held in memory by the seeders or the test
+public class SyntheticTorrent {
+
+  private final String name;
+  private final long totalLength;
+  private final int pieceLength;
+  private final long seed;
+  private final int numPieces;
+
+  public SyntheticTorrent(
+    String name,
+    long totalLength,
+    int pieceLength,
+    long seed
+  ) {
+    this.name = name;
+    this.totalLength = totalLength;
+    this.pieceLength = pieceLength;
+    this.seed = seed;
+    this.numPieces = (int) ((totalLength + pieceLength - 1) / pieceLength);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getTotalLength() {
+    return totalLength;
+  }
+
+  public int getPieceLength() {
+    return pieceLength;
+  }
+
+  public int getNumPieces() {
+    return numPieces;
+  }
+
+  public int pieceLength(int pieceIndex) {
+    long start = (long) pieceIndex * pieceLength;
+    return (int) Math.min(pieceLength, totalLength - start);
+  }
+
+  public byte[] piece(int pieceIndex) {
+    byte[] piece = new byte[pieceLength(pieceIndex)];
+    new SplittableRandom(seed * 31 + pieceIndex).nextBytes(piece);
+    return piece;
+  }
+
+  public Torrent write(Path dir, String announceUrl) throws Exception {
+    return write(dir, announceUrl, null);
+  }
+
+  public Torrent write(
+    Path dir,
+    String announceUrl,
+    List<List<String>> announceUrlList
+  ) throws Exception {
+    MessageDigest digest = MessageDigest.getInstance("SHA-1");
+    ByteArrayOutputStream hashes = new ByteArrayOutputStream(numPieces * 20);
+    for (int i = 0; i < numPieces; i++) {
+      hashes.write(digest.digest(piece(i)));
+    }
+    Map<String, Object> info = new LinkedHashMap<>();
+    info.put("length", totalLength);
+    info.put("name", name);
+    info.put("piece length", (long) pieceLength);
+    info.put(
+      "pieces",
+      new String(hashes.toByteArray(), StandardCharsets.ISO_8859_1)
+    );
+    Map<String, Object> metadata = new LinkedHashMap<>();
+    metadata.put("announce", announceUrl);
+    if (announceUrlList != null) {
+      metadata.put("announce-list", announceUrlList);
+    }
+    metadata.put("info", info);
+    Files.createDirectories(dir);
+    Path torrentFile = dir.resolve(name + ".torrent");
+    Files.write(torrentFile, TorrentConstants.bencode.encode(metadata));
+    return new Torrent(torrentFile.toString());
+  }
+}
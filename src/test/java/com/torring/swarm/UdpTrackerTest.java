@@ -0,0 +1,165 @@
+package com.torring.swarm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.torring.model.ScrapeResult;
+import com.torring.model.Torrent;
+import com.torring.service.TorrentService;
+import com.torring.service.UdpTrackerClient;
+import com.torring.util.TorrentUtils;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// BEP 15 announces and scrapes against a loopback tracker stand-in
+class UdpTrackerTest {
+
+  private static final byte[] INFO_HASH = new byte[20];
+  private static final InetSocketAddress PEER = new InetSocketAddress(
+    InetAddress.getLoopbackAddress(),
+    51413
+  );
+
+  @TempDir
+  Path dir;
+
+  private final FakeUdpTracker tracker = new FakeUdpTracker();
+  private final UdpTrackerClient client = new UdpTrackerClient(50, 3, 1000);
+
+  UdpTrackerTest() throws IOException {}
+
+  @AfterEach
+  void closeTracker() {
+    tracker.close();
+  }
+
+  @Test
+  void reusesConnectionIdAcrossAnnounces() throws Exception {
+    tracker.addPeer(INFO_HASH, PEER);
+    for (int i = 0; i < 3; i++) {
+      List<String> peers = announce("started");
+      assertEquals(List.of("127.0.0.1:51413"), peers);
+    }
+    assertEquals(1, tracker.getConnectCount());
+    assertEquals(3, tracker.getAnnounceCount());
+    assertEquals(2, tracker.getLastEvent());
+    assertEquals(6881, tracker.getLastPort());
+  }
+
+  @Test
+  void retransmitsLostPackets() throws Exception {
+    tracker.addPeer(INFO_HASH, PEER);
+    tracker.dropPackets(2);
+    long startedAt = System.currentTimeMillis();
+    assertEquals(List.of("127.0.0.1:51413"), announce(null));
+    // Waited 50ms, then 100ms, before the third try got through
+    assertTrue(System.currentTimeMillis() - startedAt >= 150);
+  }
+
+  @Test
+  void givesUpAfterMaxRetries() {
+    tracker.dropPackets(Integer.MAX_VALUE);
+    assertThrows(IOException.class, () -> announce(null));
+  }
+
+  @Test
+  void capsTotalWaitOnDeadTracker() {
+    tracker.dropPackets(Integer.MAX_VALUE);
+    UdpTrackerClient capped = new UdpTrackerClient(50, 10, 200);
+    long startedAt = System.currentTimeMillis();
+    assertThrows(
+      IOException.class,
+      () ->
+        capped.announce(
+          URI.create(tracker.getAnnounceUrl()),
+          INFO_HASH,
+          6881,
+          0,
+          0,
+          1024,
+          null
+        )
+    );
+    // Ten doubling retries would take over 50 seconds
+    assertTrue(System.currentTimeMillis() - startedAt < 1000);
+  }
+
+  @Test
+  void reconnectsWhenTrackerForgetsConnectionId() throws Exception {
+    announce(null);
+    tracker.forgetConnections();
+    announce("completed");
+    assertEquals(2, tracker.getConnectCount());
+    assertEquals(1, tracker.getLastEvent());
+  }
+
+  @Test
+  void scrapesInBatches() throws Exception {
+    List<byte[]> infoHashes = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      byte[] infoHash = new byte[20];
+      infoHash[0] = (byte) i;
+      infoHashes.add(infoHash);
+    }
+    tracker.addPeer(infoHashes.get(80), PEER);
+    List<ScrapeResult> results = client.scrape(
+      URI.create(tracker.getAnnounceUrl()),
+      infoHashes
+    );
+    assertEquals(List.of(74, 26), tracker.getScrapeBatches());
+    assertEquals(1, tracker.getConnectCount());
+    assertEquals(100, results.size());
+    assertEquals(
+      TorrentUtils.bytesToHex(infoHashes.get(80)),
+      results.get(80).getInfoHashHex()
+    );
+    assertEquals(1, results.get(80).getSeeders());
+    assertEquals(0, results.get(79).getSeeders());
+  }
+
+  @Test
+  void prefersUdpTrackerFromAnnounceList() throws Exception {
+    SyntheticTorrent synthetic = new SyntheticTorrent(
+      "udp.bin",
+      1 << 20,
+      256 * 1024,
+      7
+    );
+    try (FakeTracker httpTracker = new FakeTracker()) {
+      Torrent torrent = synthetic.write(
+        dir,
+        httpTracker.getAnnounceUrl(),
+        List.of(
+          List.of(httpTracker.getAnnounceUrl(), tracker.getAnnounceUrl())
+        )
+      );
+      tracker.addPeer(torrent.getInfoHash(), PEER);
+      httpTracker.addPeer(torrent.getInfoHash(), PEER);
+      List<String> peers = TorrentService.getPeersList(client, torrent);
+      assertEquals(List.of("127.0.0.1:51413"), peers);
+      assertEquals(1, tracker.getAnnounceCount());
+      assertEquals(0, httpTracker.getAnnounceCount());
+    }
+  }
+
+  private List<String> announce(String event) throws IOException {
+    return client.announce(
+      URI.create(tracker.getAnnounceUrl()),
+      INFO_HASH,
+      6881,
+      0,
+      0,
+      1024,
+      event
+    );
+  }
+}
@@ -0,0 +1,177 @@
+package com.torring.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.torring.model.Torrent;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+// Hostile .torrent uploads must fail with IllegalArgumentException, not
+// an index error or a blown stack
+class BencodeReaderTest {
+
+  @Test
+  void readsNestedValues() {
+    BencodeReader reader = reader("d4:listli1ei-2ee3:str5:hello1:xde1:yi0ee");
+    assertEquals(
+      Map.of(
+        "list",
+        List.of(1L, -2L),
+        "str",
+        "hello",
+        "x",
+        Map.of(),
+        "y",
+        0L
+      ),
+      reader.readValue()
+    );
+  }
+
+  @Test
+  void skipsValuesItDoesNotWant() {
+    BencodeReader reader = reader("d4:skipld1:al1:beee4:wanti42ee");
+    reader.beginDictionary();
+    assertEquals("skip", reader.readKey());
+    reader.skip();
+    assertEquals("want", reader.readKey());
+    assertEquals(42L, reader.readLong());
+    reader.end();
+    assertEquals(reader.getData().length, reader.getPosition());
+  }
+
+  @Test
+  void rejectsMalformedIntegers() {
+    for (String input : List.of("ie", "i1.5e", "i99999999999999999999e")) {
+      assertThrows(
+        IllegalArgumentException.class,
+        () -> reader(input).readValue(),
+        input
+      );
+    }
+  }
+
+  @Test
+  void rejectsMalformedStructure() {
+    for (String input : List.of(
+      "",
+      "d3:foo",
+      "d3:fooi1e",
+      "i12",
+      "5:ab",
+      "-3:abc",
+      ":abc",
+      "x",
+      "l",
+      "2147483647:a",
+      "99999999999:a"
+    )) {
+      assertThrows(
+        IllegalArgumentException.class,
+        () -> reader(input).readValue(),
+        input
+      );
+      assertThrows(
+        IllegalArgumentException.class,
+        () -> reader(input).skip(),
+        input
+      );
+    }
+  }
+
+  @Test
+  void rejectsDeeplyNestedInput() {
+    String nested = "l".repeat(100_000) + "e".repeat(100_000);
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> reader(nested).readValue()
+    );
+    assertThrows(IllegalArgumentException.class, () -> reader(nested).skip());
+    assertThrows(
+      IllegalArgumentException.class,
+      () -> new Torrent(bytes("d7:comment" + nested + "e"))
+    );
+  }
+
+  @Test
+  void acceptsReasonableNesting() {
+    String nested = "l".repeat(64) + "e".repeat(64);
+    reader(nested).readValue();
+    reader(nested).skip();
+  }
+
+  @Test
+  void rejectsMalformedTorrents() {
+    for (String input : List.of(
+      "de",
+      "d4:infod4:name1:xee",
+      "d4:infod6:pieces20:abc",
+      "d8:announce3:url4:infoi1ee"
+    )) {
+      assertThrows(
+        IllegalArgumentException.class,
+        () -> new Torrent(bytes(input)),
+        input
+      );
+    }
+  }
+
+  @Test
+  void rejectsInconsistentPieceLayout() {
+    String hashes = "a".repeat(60);
+    for (String input : List.of(
+      torrent(0, 40000, hashes),
+      torrent(-16384, 40000, hashes),
+      // Would truncate to zero as an int
+      torrent(1L << 32, 40000, hashes),
+      torrent(16384, 40000, hashes.substring(1)),
+      torrent(16384, 40000, hashes.substring(20)),
+      torrent(16384, 40000, hashes + "a".repeat(20)),
+      torrent(16384, 0, ""),
+      torrent(16384, -1, hashes),
+      "d4:infod5:filesld6:lengthi-1eed6:lengthi40001eee4:name1:x" +
+      "12:piece lengthi16384e6:pieces60:" +
+      hashes +
+      "ee"
+    )) {
+      assertThrows(
+        IllegalArgumentException.class,
+        () -> new Torrent(bytes(input)),
+        input
+      );
+    }
+  }
+
+  @Test
+  void acceptsConsistentPieceLayout() throws Exception {
+    Torrent torrent = new Torrent(bytes(torrent(16384, 40000, "a".repeat(60))));
+    assertEquals(3, torrent.getNumPieces());
+    assertEquals(16384, torrent.getPieceLength());
+    assertEquals(40000, torrent.getTotalLength());
+  }
+
+  private static String torrent(long pieceLength, long length, String hashes) {
+    return (
+      "d4:infod6:lengthi" +
+      length +
+      "e4:name1:x12:piece lengthi" +
+      pieceLength +
+      "e6:pieces" +
+      hashes.length() +
+      ":" +
+      hashes +
+      "ee"
+    );
+  }
+
+  private static BencodeReader reader(String input) {
+    return new BencodeReader(bytes(input));
+  }
+
+  private static byte[] bytes(String input) {
+    return input.getBytes(StandardCharsets.ISO_8859_1);
+  }
+}